@@ -20,6 +20,8 @@ import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
 
 import com.microsoft.intune.samples.taskr.authentication.AuthManager;
 import com.microsoft.intune.samples.taskr.custom_modules.CustomPackage;
+import com.microsoft.intune.samples.taskr.custom_modules.PolicyCache;
+import com.microsoft.intune.samples.taskr.trusted_roots.TrustMaterialCache;
 import com.microsoft.intune.samples.taskr.trusted_roots.TrustedRootsOkHttpClientFactory;
 
 import java.util.List;
@@ -96,6 +98,20 @@ public class MainApplication extends Application implements ReactApplication {
             return true;
         }, MAMNotificationType.MAM_ENROLLMENT_RESULT);
 
+        // Forget cached policy decisions and trusted roots whenever the policy may have changed
+        MAMNotificationReceiverRegistry registry =
+            MAMComponents.get(MAMNotificationReceiverRegistry.class);
+        for (MAMNotificationType type : new MAMNotificationType[] {
+            MAMNotificationType.REFRESH_POLICY,
+            MAMNotificationType.MANAGEMENT_REMOVED,
+            MAMNotificationType.MAM_ENROLLMENT_RESULT}) {
+            registry.registerReceiver(notification -> {
+                PolicyCache.clear();
+                TrustMaterialCache.clear();
+                return true;
+            }, type);
+        }
+
         /* ADAL logging is enabled in the app by default for troubleshooting purposes.
          * More information is available here:
          * https://github.com/AzureAD/azure-activedirectory-library-for-android/#logs */
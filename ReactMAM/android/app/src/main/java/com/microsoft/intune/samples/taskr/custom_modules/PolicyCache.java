@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.custom_modules;
+
+import android.content.Context;
+
+import com.microsoft.intune.mam.client.identity.MAMPolicyManager;
+import com.microsoft.intune.mam.policy.SaveLocation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Caches the MAM save policy per user, so repeated saves don't ask the SDK every time
+ * Must be cleared whenever the policy may change; MainApplication does this on MAM notifications
+ */
+public final class PolicyCache {
+    // ConcurrentHashMap can't hold null keys, so this stands in for "nobody signed in"
+    private static final String NO_USER = "";
+
+    private static final Map<String, Boolean> saveToLocalAllowed = new ConcurrentHashMap<>();
+
+    private PolicyCache() {
+    }
+
+    /**
+     * Checks if a User may Save Files to the Device, Asking MAM Only if Not Cached
+     * @param context Context used to look up the MAM policy
+     * @param user Identity of the user, or null if nobody is signed in
+     * @return true if saving to the device is allowed
+     */
+    public static boolean isSaveToLocalAllowed(Context context, String user) {
+        return saveToLocalAllowed.computeIfAbsent(user == null ? NO_USER : user,
+            key -> MAMPolicyManager.getPolicy(context)
+                .getIsSaveToLocationAllowed(SaveLocation.LOCAL, user));
+    }
+
+    /**
+     * Forgets Every Cached Policy
+     */
+    public static void clear() {
+        saveToLocalAllowed.clear();
+    }
+}
@@ -22,10 +22,14 @@ import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.UiThreadUtil;
 
 import com.microsoft.intune.samples.taskr.R;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * NativeModule for Printing Documents formatted as a HTML Page
@@ -49,6 +53,33 @@ public class PrintModule extends ReactContextBaseJavaModule {
         return "CustomPrint";
     }
 
+    /**
+     * Print a List of Tasks By Drawing Them Directly onto PDF Pages
+     * Avoids building an HTML document and laying it out in a WebView
+     * @param tasks Array of task descriptions to print
+     * @param promise JS Promise to return to calling JS code with printing status
+     */
+    @ReactMethod
+    public void printTasks(ReadableArray tasks, Promise promise) {
+        List<String> taskList = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            taskList.add(tasks.getString(i));
+        }
+
+        UiThreadUtil.runOnUiThread(() -> {  // Important Since Printing Window Affects App UI
+            PrintManager printManager =
+                (PrintManager) reactContext.getSystemService(Context.PRINT_SERVICE);
+            if (printManager == null) {
+                promise.reject(E_PRINTING, reactContext.getString(R.string.err_no_print));
+                return;
+            }
+
+            printManager.print("Print Taskr Doc",
+                new TaskListPrintDocumentAdapter(reactContext, taskList, () -> promise.resolve(null)),
+                null);
+        });
+    }
+
     /**
      * Print any HTML Document as a String By Using WebView and Printing Pane
      * @param htmlDoc String representing HTML document to print
@@ -14,9 +14,6 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 
-import com.microsoft.intune.mam.client.identity.MAMPolicyManager;
-import com.microsoft.intune.mam.policy.SaveLocation;
-
 import com.microsoft.intune.samples.taskr.R;
 import com.microsoft.intune.samples.taskr.authentication.AuthManager;
 
@@ -56,9 +53,8 @@ public class SaveModule extends ReactContextBaseJavaModule {
      */
     @ReactMethod
     public void saveString(String text, String fileName, Promise promise) {
-        // Check MAM Policy if Saving is Allowed to Disk
-        if (!MAMPolicyManager.getPolicy(reactContext)
-            .getIsSaveToLocationAllowed(SaveLocation.LOCAL, AuthManager.getUser())) {
+        // Check MAM Policy if Saving is Allowed to Disk, Cached Until the Policy Changes
+        if (!PolicyCache.isSaveToLocalAllowed(reactContext, AuthManager.getUser())) {
             promise.reject(E_SAVING, reactContext.getString(R.string.err_not_allowed));
             return;
         }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.custom_modules;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * PrintDocumentAdapter that Draws a List of Tasks Directly onto PDF Pages
+ * Only the page ranges requested by the printing service are drawn, so no WebView or HTML is needed
+ * Pages are drawn on a background thread and the printing service is notified on completion
+ */
+public class TaskListPrintDocumentAdapter extends PrintDocumentAdapter {
+    private static final int POINTS_PER_INCH = 72;
+    private static final int MILS_PER_INCH = 1000;
+    private static final float MARGIN = 36f;
+    private static final float TEXT_SIZE = 10f;
+    private static final float ROW_HEIGHT = 14f;
+    private static final float ID_COLUMN_WIDTH = 72f;
+
+    private static final String HEADER_COL_ID = "ID";
+    private static final String HEADER_COL_DESC = "Task Description";
+
+    private final Context context;
+    private final List<String> tasks;
+    private final Runnable onFinish;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint headerPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+    private PrintAttributes attributes;
+    private int rowsPerPage;
+    private int pageCount;
+
+    /**
+     * @param context Context Used to Create the PDF Document
+     * @param tasks List of Task Descriptions to Print, Numbered from 1
+     * @param onFinish Called Once the Printing Service is Done With This Adapter
+     */
+    TaskListPrintDocumentAdapter(Context context, List<String> tasks, Runnable onFinish) {
+        this.context = context;
+        this.tasks = tasks;
+        this.onFinish = onFinish;
+        textPaint.setTextSize(TEXT_SIZE);
+        headerPaint.setTextSize(TEXT_SIZE);
+        headerPaint.setFakeBoldText(true);
+    }
+
+    @Override
+    public void onLayout(PrintAttributes oldAttributes, PrintAttributes newAttributes,
+                         CancellationSignal signal, LayoutResultCallback callback,
+                         Bundle extras) {
+        if (signal.isCanceled()) {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        attributes = newAttributes;
+        PrintAttributes.MediaSize mediaSize = newAttributes.getMediaSize();
+        float pageHeight = mediaSize == null
+            ? 11 * POINTS_PER_INCH
+            : mediaSize.getHeightMils() * (float) POINTS_PER_INCH / MILS_PER_INCH;
+
+        // Leave Room for Margins and the Header Row
+        rowsPerPage = Math.max(1, (int) ((pageHeight - 2 * MARGIN) / ROW_HEIGHT) - 1);
+        pageCount = Math.max(1, (tasks.size() + rowsPerPage - 1) / rowsPerPage);
+
+        PrintDocumentInfo info = new PrintDocumentInfo.Builder("Taskr Document.pdf")
+            .setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
+            .setPageCount(pageCount)
+            .build();
+        callback.onLayoutFinished(info, !newAttributes.equals(oldAttributes));
+    }
+
+    @Override
+    public void onWrite(PageRange[] pages, ParcelFileDescriptor destination,
+                        CancellationSignal signal, WriteResultCallback callback) {
+        final PrintAttributes pageAttributes = attributes;
+        final int pageRows = rowsPerPage;
+        final int totalPages = pageCount;
+
+        writeExecutor.execute(() -> {
+            PrintedPdfDocument pdf = new PrintedPdfDocument(context, pageAttributes);
+            try {
+                for (int pageNumber = 0; pageNumber < totalPages; pageNumber++) {
+                    if (signal.isCanceled()) {
+                        callback.onWriteCancelled();
+                        return;
+                    }
+                    if (!isRequested(pages, pageNumber))
+                        continue;
+
+                    PdfDocument.Page page = pdf.startPage(pageNumber);
+                    drawPage(page.getCanvas(), pageNumber * pageRows, pageRows);
+                    pdf.finishPage(page);
+                }
+
+                try (OutputStream out = new FileOutputStream(destination.getFileDescriptor())) {
+                    pdf.writeTo(out);
+                }
+                callback.onWriteFinished(pages);
+            } catch (IOException e) {
+                callback.onWriteFailed(e.getLocalizedMessage());
+            } finally {
+                pdf.close();
+            }
+        });
+    }
+
+    @Override
+    public void onFinish() {
+        writeExecutor.shutdown();
+        onFinish.run();
+    }
+
+    /**
+     * Draws One Page of the Task Table
+     * @param canvas Canvas of the PDF Page
+     * @param first Index of the First Task on the Page
+     * @param count Maximum Number of Tasks on the Page
+     */
+    private void drawPage(@NonNull Canvas canvas, int first, int count) {
+        float descriptionX = MARGIN + ID_COLUMN_WIDTH;
+        float descriptionWidth = canvas.getWidth() - descriptionX - MARGIN;
+        float y = MARGIN + TEXT_SIZE;
+
+        canvas.drawText(HEADER_COL_ID, MARGIN, y, headerPaint);
+        canvas.drawText(HEADER_COL_DESC, descriptionX, y, headerPaint);
+        int last = Math.min(tasks.size(), first + count);
+        for (int i = first; i < last; i++) {
+            y += ROW_HEIGHT;
+            canvas.drawText(Integer.toString(i + 1), MARGIN, y, textPaint);
+            CharSequence description = TextUtils.ellipsize(tasks.get(i), textPaint,
+                descriptionWidth, TextUtils.TruncateAt.END);
+            canvas.drawText(description, 0, description.length(), descriptionX, y, textPaint);
+        }
+    }
+
+    /**
+     * Checks if the Printing Service Asked for a Page
+     * @param pages Page Ranges Requested by the Printing Service
+     * @param pageNumber Page to Check
+     * @return true if pageNumber is in one of the ranges
+     */
+    private static boolean isRequested(PageRange[] pages, int pageNumber) {
+        for (PageRange range : pages) {
+            if (PageRange.ALL_PAGES.equals(range)
+                || (range.getStart() <= pageNumber && pageNumber <= range.getEnd()))
+                return true;
+        }
+        return false;
+    }
+}
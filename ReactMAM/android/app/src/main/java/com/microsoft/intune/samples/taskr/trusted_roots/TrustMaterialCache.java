@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trusted_roots;
+
+import com.microsoft.intune.mam.client.app.MAMTrustedRootCertsManager;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Caches the SSLContext and trust manager built from MAM's trusted roots, so new clients don't
+ * make MAM read and parse the certificates again
+ * Must be cleared whenever the policy may change; MainApplication does this on MAM notifications
+ */
+public final class TrustMaterialCache {
+    /**
+     * The SSLContext and trust manager built from one set of trusted roots
+     */
+    public static final class TrustMaterial {
+        public final SSLContext sslContext;
+        public final X509TrustManager trustManager;
+
+        TrustMaterial(SSLContext sslContext, X509TrustManager trustManager) {
+            this.sslContext = sslContext;
+            this.trustManager = trustManager;
+        }
+    }
+
+    private static volatile TrustMaterial material;
+    private static final CopyOnWriteArrayList<Runnable> clearListeners = new CopyOnWriteArrayList<>();
+
+    private TrustMaterialCache() {
+    }
+
+    /**
+     * Gets the Trust Material, Asking MAM Only if Not Cached
+     * @return the trust material for MAM's trusted roots
+     * @throws GeneralSecurityException if MAM could not build it
+     */
+    public static TrustMaterial get() throws GeneralSecurityException {
+        TrustMaterial current = material;
+        if (current != null) {
+            return current;
+        }
+        synchronized (TrustMaterialCache.class) {
+            if (material == null) {
+                material = new TrustMaterial(
+                    MAMTrustedRootCertsManager.createSSLContext(null, null),
+                    (X509TrustManager) MAMTrustedRootCertsManager.createX509TrustManagers(null)[0]);
+            }
+            return material;
+        }
+    }
+
+    /**
+     * Runs a Listener Every Time the Cached Trust Material is Forgotten
+     * @param listener called on the thread that clears the cache
+     */
+    public static void addClearListener(Runnable listener) {
+        clearListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Forgets the Cached Trust Material
+     */
+    public static void clear() {
+        material = null;
+        for (Runnable listener : clearListeners) {
+            listener.run();
+        }
+    }
+}
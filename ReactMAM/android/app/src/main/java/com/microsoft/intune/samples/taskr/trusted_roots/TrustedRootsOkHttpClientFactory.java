@@ -4,36 +4,165 @@ import android.util.Log;
 
 import com.facebook.react.modules.network.OkHttpClientFactory;
 import com.facebook.react.modules.network.ReactCookieJarContainer;
-import com.microsoft.intune.mam.client.app.MAMTrustedRootCertsManager;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import okhttp3.OkHttpClient;
 
 /**
- * An OkHttpClientFactory that uses the MAMTrustedRootCertsManager to create an OkHttpClient. If the MAMTrustedRootCertsManager fails to create an SSL Socket Factory, the default OkHttpClient is used.
+ * An OkHttpClientFactory whose clients trust the roots MAMTrustedRootCertsManager provides, cached by TrustMaterialCache. If the MAMTrustedRootCertsManager fails to create the trust material, the platform's default trust is used.
+ *
+ * React Native's networking module creates its client once and keeps it, so the clients don't hold on to one set of trust material: every new TLS connection asks TrustMaterialCache for the current one. When the cache is cleared, idle connections are evicted, so the next request handshakes with the new roots.
  */
 public class TrustedRootsOkHttpClientFactory implements OkHttpClientFactory {
     
-    public final String TAG = "TrustedRootsOkHttpClientFactory";
+    private static final String TAG = "TrustedRootsOkHttpClientFactory";
+
+    // Weak, so a client React Native drops can still be collected
+    private static final Set<OkHttpClient> clients = Collections.newSetFromMap(new WeakHashMap<>());
+
+    static {
+        TrustMaterialCache.addClearListener(() -> {
+            synchronized (clients) {
+                for (OkHttpClient client : clients) {
+                    client.connectionPool().evictAll();
+                }
+            }
+        });
+    }
 
     @Override
     public OkHttpClient createNewNetworkModuleClient() {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .cookieJar(new ReactCookieJarContainer())
+                .sslSocketFactory(new CurrentTrustSocketFactory(), new CurrentTrustManager())
+                .build();
+        synchronized (clients) {
+            clients.add(client);
+        }
+        return client;
+    }
+
+    /**
+     * Gets the Current Trust Material, Falling Back to the Platform's if MAM Can't Build It
+     */
+    private static TrustMaterialCache.TrustMaterial current() {
         try {
-            return new OkHttpClient.Builder()
-                    .cookieJar(new ReactCookieJarContainer())
-                    .sslSocketFactory(
-                            MAMTrustedRootCertsManager.createSSLSocketFactory(null, null),
-                            (X509TrustManager) MAMTrustedRootCertsManager.createX509TrustManagers(null)[0]
-                    )
-                    .build();
+            return TrustMaterialCache.get();
         } catch (GeneralSecurityException e) {
-            Log.d(TAG, "Error creating SSL Socket Factory, using default OkHttpClient.", e);
-            return new OkHttpClient.Builder()
-                    .cookieJar(new ReactCookieJarContainer())
-                    .build();
+            Log.d(TAG, "Error creating trust material, using the default.", e);
+            return PlatformTrust.MATERIAL;
+        }
+    }
+
+    /**
+     * The Platform's Default Trust, Built Only if MAM's Can't Be
+     */
+    private static final class PlatformTrust {
+        static final TrustMaterialCache.TrustMaterial MATERIAL = create();
+
+        private static TrustMaterialCache.TrustMaterial create() {
+            try {
+                TrustManagerFactory factory =
+                        TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                factory.init((KeyStore) null);
+                X509TrustManager trustManager = null;
+                for (TrustManager candidate : factory.getTrustManagers()) {
+                    if (candidate instanceof X509TrustManager) {
+                        trustManager = (X509TrustManager) candidate;
+                        break;
+                    }
+                }
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[] {trustManager}, null);
+                return new TrustMaterialCache.TrustMaterial(sslContext, trustManager);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("No default trust material", e);
+            }
+        }
+    }
+
+    /**
+     * Creates Each Socket From the Current Trust Material's SSLContext
+     */
+    private static final class CurrentTrustSocketFactory extends SSLSocketFactory {
+        private static SSLSocketFactory delegate() {
+            return current().sslContext.getSocketFactory();
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate().getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate().getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return delegate().createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate().createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate().createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return delegate().createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    /**
+     * Checks Certificates Against the Current Trust Material's Trust Manager
+     */
+    private static final class CurrentTrustManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            current().trustManager.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            current().trustManager.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return current().trustManager.getAcceptedIssuers();
         }
     }
 }
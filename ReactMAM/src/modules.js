@@ -75,28 +75,13 @@ const saveTasks = async tasks => {
 };
   
 
-const HTML_HEADER = 
-`<!DOCTYPE html><html><body><table>
-<tr><th>${HEADER_COL_ID}</th><th>${HEADER_COL_DESC}</th></tr>
-`;
-
-const HTML_FOOTER = '</table></body></html>';
-
 /**
- * Print Tasks by sending to Android Printing Service formatted in HTML Doc
- * Uses Native Modules to handle communication with Android printing
- * @param tasks List of string of tasks to format and print
+ * Print Tasks by sending them to the Android Printing Service
+ * Native code draws the tasks straight onto PDF pages, only for the pages being printed
+ * @param tasks List of string of tasks to print
  * @return Promise of printing status and any potential errors
  */
-const printTasks = tasks => {
-  // Format Tasks into HTML Doc
-  const html = HTML_HEADER 
-    + tasks.map((task, index) => 
-      `<tr><td>${index + 1}</td><td>${task}</td></tr>\n`).join('')
-    + HTML_FOOTER;
-
-  return NativeModules.CustomPrint.printTasks(html);
-};
+const printTasks = tasks => NativeModules.CustomPrint.printTasks(tasks);
 
 
 export { getMAMConfig, signOut, saveTasks, printTasks };
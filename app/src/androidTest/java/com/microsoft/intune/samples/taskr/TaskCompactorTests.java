@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr;
+
+import android.content.Context;
+import android.database.Cursor;
+import androidx.room.Room;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.microsoft.intune.samples.taskr.room.IncrementalVacuumOpenHelperFactory;
+import com.microsoft.intune.samples.taskr.room.Task;
+import com.microsoft.intune.samples.taskr.room.TaskCompactor;
+import com.microsoft.intune.samples.taskr.room.TaskDao;
+import com.microsoft.intune.samples.taskr.room.TaskDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Instrumented test, which will execute on an Android device. Checks that compaction archives
+ * only old completed tasks, and that the open task list is untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskCompactorTests {
+    private static final String TEST_DB = "compactor-test";
+    private static final int TASK_COUNT = 2000;
+    private static final int BATCH_SIZE = 300;
+    private static final long ARCHIVE_AFTER_MS = TimeUnit.DAYS.toMillis(1);
+
+    private TaskDatabase mDb;
+    private TaskDao mDao;
+    private ExecutorService mWriter;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        // A file, rather than an in-memory database, so that vacuuming has something to shrink
+        mDb = Room.databaseBuilder(context, TaskDatabase.class, TEST_DB)
+                .openHelperFactory(new IncrementalVacuumOpenHelperFactory())
+                .build();
+        mDao = mDb.taskDao();
+        mWriter = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void closeDb() {
+        mWriter.shutdownNow();
+        mDb.close();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void archivesOnlyOldCompletedTasks() {
+        Task[] tasks = new Task[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new Task("task " + i);
+        }
+        long[] ids = mDao.insertAll(tasks);
+
+        // Half the tasks were completed long ago, a quarter just now, and the rest are open
+        List<Long> old = new ArrayList<>();
+        List<Long> recent = new ArrayList<>();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            if (i % 2 == 0) {
+                old.add(ids[i]);
+            } else if (i % 4 == 1) {
+                recent.add(ids[i]);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        mDao.completeAll(old, now - 2 * ARCHIVE_AFTER_MS);
+        mDao.completeAll(recent, now);
+        final int open = TASK_COUNT - old.size() - recent.size();
+        assertEquals(open, mDao.count());
+
+        TaskCompactor compactor = new TaskCompactor(mDb, mWriter, ARCHIVE_AFTER_MS, BATCH_SIZE);
+        assertEquals(old.size(), compactor.compact(() -> false));
+
+        assertEquals(old.size(), mDao.countArchived());
+        assertEquals(open, mDao.count());
+        assertEquals(open + recent.size(), mDao.getAllSync().size());
+        assertEquals(open, mDao.getPageAfter(0, TASK_COUNT).size());
+
+        // Nothing left to archive the second time around
+        assertEquals(0, compactor.compact(() -> false));
+    }
+
+    @Test
+    public void newDatabasesUseIncrementalVacuum() {
+        // 2 is INCREMENTAL, set before the tables were created so no full VACUUM is ever needed
+        try (Cursor cursor = mDb.getOpenHelper().getWritableDatabase().query("PRAGMA auto_vacuum")) {
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getInt(0));
+        }
+    }
+
+    @Test
+    public void stopsWhenAsked() {
+        Task[] tasks = new Task[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new Task("task " + i);
+        }
+        List<Long> ids = new ArrayList<>();
+        for (long id : mDao.insertAll(tasks)) {
+            ids.add(id);
+        }
+        mDao.completeAll(ids, 0);
+
+        // Stop after the first batch
+        final int[] checks = {0};
+        TaskCompactor compactor = new TaskCompactor(mDb, mWriter, ARCHIVE_AFTER_MS, BATCH_SIZE);
+        assertEquals(BATCH_SIZE, compactor.compact(() -> checks[0]++ > 0));
+        assertEquals(BATCH_SIZE, mDao.countArchived());
+    }
+}
@@ -13,6 +13,8 @@ import androidx.test.runner.AndroidJUnit4;
 import com.microsoft.intune.samples.taskr.room.Task;
 import com.microsoft.intune.samples.taskr.room.TaskDao;
 import com.microsoft.intune.samples.taskr.room.TaskDatabase;
+import com.microsoft.intune.samples.taskr.room.TaskFts;
+import com.microsoft.intune.samples.taskr.room.TaskMatch;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -20,6 +22,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static junit.framework.Assert.assertNotNull;
@@ -121,4 +125,68 @@ public class TaskDaoTests {
         assertTrue(tasksBack.size() == 1);
         assertTrue(tasksBack.get(0).equals(task0));
     }
+
+    @Test
+    public void writeManyAndGetPages() {
+        Task task0 = new Task("test0");
+        Task task1 = new Task("test1");
+        Task task2 = new Task("test2");
+
+        long[] ids = mDao.insertAll(task0, task1, task2);
+        task0.setId(ids[0]);
+        task1.setId(ids[1]);
+        task2.setId(ids[2]);
+
+        List<Task> firstPage = mDao.getPageAfter(0, 2);
+        assertTrue(firstPage.size() == 2);
+        assertTrue(firstPage.get(0).equals(task0));
+        assertTrue(firstPage.get(1).equals(task1));
+
+        List<Task> secondPage = mDao.getPageAfter(firstPage.get(1).getId(), 2);
+        assertTrue(secondPage.size() == 1);
+        assertTrue(secondPage.get(0).equals(task2));
+        assertTrue(mDao.count() == 3);
+
+        List<Task> previousPage = mDao.getPageBefore(task2.getId(), 2);
+        assertTrue(previousPage.size() == 2);
+        assertTrue(previousPage.get(0).equals(task1));
+        assertTrue(previousPage.get(1).equals(task0));
+    }
+
+    @Test
+    public void writeManyAndSearch() {
+        Task task0 = new Task("buy milk");
+        Task task1 = new Task("milk the cow, then drink the milk");
+        Task task2 = new Task("walk the dog");
+
+        long[] ids = mDao.insertAll(task0, task1, task2);
+        task0.setId(ids[0]);
+        task1.setId(ids[1]);
+        task2.setId(ids[2]);
+
+        String query = TaskFts.toMatchQuery("mil");
+        List<TaskMatch> matches = mDao.searchMatches(query, 10);
+        assertTrue(matches.size() == 2);
+        TaskMatch match0 = matches.get(0).getId() == task0.getId() ? matches.get(0) : matches.get(1);
+        TaskMatch match1 = matches.get(0).getId() == task1.getId() ? matches.get(0) : matches.get(1);
+        assertTrue(match0.getId() == task0.getId());
+        assertTrue(match1.getId() == task1.getId());
+        // Mentioning milk twice ranks higher than mentioning it once
+        assertTrue(match1.getScore() > match0.getScore());
+
+        // The matching Tasks are loaded by id, leaving out any that were completed
+        List<Task> loaded = mDao.getOpenByIds(Arrays.asList(task1.getId(), task2.getId()));
+        assertTrue(loaded.size() == 2);
+        mDao.completeAll(Collections.singletonList(task2.getId()), 1000);
+        loaded = mDao.getOpenByIds(Arrays.asList(task1.getId(), task2.getId()));
+        assertTrue(loaded.size() == 1);
+        assertTrue(loaded.get(0).equals(task1));
+
+        // The index follows deletes from the task table
+        mDao.delete(task1);
+        matches = mDao.searchMatches(TaskFts.toMatchQuery("milk"), 10);
+        assertTrue(matches.size() == 1);
+        assertTrue(matches.get(0).getId() == task0.getId());
+        assertTrue(TaskFts.toMatchQuery(" \" ") == null);
+    }
 }
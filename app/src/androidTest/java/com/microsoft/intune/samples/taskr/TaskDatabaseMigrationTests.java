@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.room.Room;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.microsoft.intune.samples.taskr.room.Task;
+import com.microsoft.intune.samples.taskr.room.TaskDao;
+import com.microsoft.intune.samples.taskr.room.TaskDatabase;
+import com.microsoft.intune.samples.taskr.room.TaskFts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Instrumented test, which will execute on an Android device. Creates databases from the schemas
+ * exported for older versions and checks that migrating them keeps every task.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskDatabaseMigrationTests {
+    private static final String TEST_DB = "migration-test";
+    private static final int LATEST_VERSION = 4;
+    private static final int TASK_COUNT = 5000;
+
+    @Rule
+    public MigrationTestHelper mHelper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            TaskDatabase.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrateFromVersion1() throws IOException {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 1);
+        insertTasks(db);
+        db.close();
+
+        mHelper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true, TaskDatabase.MIGRATIONS);
+
+        assertTasksKept();
+    }
+
+    @Test
+    public void migrateFromVersion2() throws IOException {
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 2);
+        insertTasks(db);
+        db.close();
+
+        db = mHelper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true,
+                TaskDatabase.MIGRATION_2_3, TaskDatabase.MIGRATION_3_4);
+        // The list and export queries must be answered from the new index
+        assertTrue(usesIndex(db, "SELECT * FROM task WHERE mCompleted = 0 AND mId > 0 ORDER BY mId",
+                "index_Task_mCompleted_mId"));
+
+        assertTasksKept();
+    }
+
+    private static void insertTasks(final SupportSQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 1; i <= TASK_COUNT; i++) {
+                values.put("mId", i);
+                values.put("mDescription", "task " + i);
+                db.insert("Task", SQLiteDatabase.CONFLICT_ABORT, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Opens the migrated database with Room, as the app would, and checks its contents.
+     */
+    private void assertTasksKept() {
+        TaskDatabase database = Room.databaseBuilder(InstrumentationRegistry.getTargetContext(),
+                TaskDatabase.class, TEST_DB).addMigrations(TaskDatabase.MIGRATIONS).build();
+        mHelper.closeWhenFinished(database);
+        TaskDao dao = database.taskDao();
+
+        assertEquals(TASK_COUNT, dao.count());
+        Task task = dao.get(42);
+        assertEquals("task 42", task.getDescription());
+        // Rows from before the migration get the column defaults
+        assertEquals(0, task.getCreatedAt());
+        assertFalse(task.isCompleted());
+        assertEquals(0, task.getPriority());
+        assertEquals(TASK_COUNT, dao.getPageAfter(0, TASK_COUNT).size());
+
+        // The full-text index covers the old tasks, and search leaves out completed ones
+        final long last = TASK_COUNT;
+        final String lastQuery = TaskFts.toMatchQuery(Long.toString(last));
+        assertEquals(1, dao.searchMatches(lastQuery, 10).size());
+        dao.completeAll(Collections.singletonList(last), 1000);
+        assertEquals(0, dao.searchMatches(lastQuery, 10).size());
+
+        Task completed = dao.get(last);
+        assertTrue(completed.isCompleted());
+        assertEquals(1000, completed.getUpdatedAt());
+        assertEquals(TASK_COUNT - 1, dao.getPageAfter(0, TASK_COUNT).size());
+        assertEquals(TASK_COUNT - 1, dao.count());
+        assertEquals(0, dao.countArchived());
+    }
+
+    private static boolean usesIndex(final SupportSQLiteDatabase db, final String query,
+                                     final String index) {
+        try (Cursor plan = db.query("EXPLAIN QUERY PLAN " + query)) {
+            while (plan.moveToNext()) {
+                // The plan's last column describes each step
+                if (plan.getString(plan.getColumnCount() - 1).contains(index)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.samples.taskr.authentication.AppAccount;
+import com.microsoft.intune.samples.taskr.authentication.AppSettings;
+import com.microsoft.intune.samples.taskr.room.RoomManager;
+import com.microsoft.intune.samples.taskr.room.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Instrumented test, which will execute on an Android device. Fires synthetic MAM notifications
+ * at a WipeManager running the app's own wipe steps, against the databases RoomManager keeps for
+ * each account, and checks the account's database is gone by the time the wipe is reported.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WipeManagerAppStepsTests {
+    private static final String USER_OID = "00000000-0000-0000-0000-000000000002";
+    private static final String OTHER_OID = "00000000-0000-0000-0000-000000000003";
+    private static final int TASK_COUNT = 250;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private WipeManager mWipeManager;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        // TaskrApplication has already initialized RoomManager
+        mWipeManager = new WipeManager(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AppAccount account = AppSettings.getAccount(mContext);
+        RoomManager.switchAccount(account == null ? null : account.getAADID())
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        RoomManager.deleteAccountData(USER_OID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        RoomManager.deleteAccountData(OTHER_OID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void wipeDeletesTheDatabaseInUse() throws Exception {
+        RoomManager.switchAccount(USER_OID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        insertTasks();
+        File database = databaseFile(USER_OID);
+        assertTrue(database.exists());
+
+        assertTrue(WipeManagerTests.receive(mWipeManager,
+                WipeManagerTests.notification(MAMNotificationType.WIPE_USER_DATA, USER_OID)));
+
+        assertFalse(database.exists());
+    }
+
+    @Test
+    public void wipeDeletesADatabaseNotInUse() throws Exception {
+        RoomManager.switchAccount(USER_OID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        insertTasks();
+        RoomManager.switchAccount(OTHER_OID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        File database = databaseFile(USER_OID);
+        assertTrue(database.exists());
+
+        assertTrue(WipeManagerTests.receive(mWipeManager,
+                WipeManagerTests.notification(MAMNotificationType.WIPE_USER_DATA, USER_OID)));
+
+        assertFalse(database.exists());
+        // The other account's database is left alone
+        assertTrue(databaseFile(OTHER_OID).exists());
+    }
+
+    private static void insertTasks() throws Exception {
+        CompletableFuture<Long> last = null;
+        for (int i = 0; i < TASK_COUNT; i++) {
+            last = RoomManager.insertTask(new Task("task " + i));
+        }
+        RoomManager.flushWrites();
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @NonNull
+    private File databaseFile(@NonNull final String aadId) {
+        return mContext.getDatabasePath("tasks-" + aadId + ".db");
+    }
+}
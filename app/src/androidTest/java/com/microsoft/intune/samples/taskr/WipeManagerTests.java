@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.mam.policy.notification.MAMUserNotification;
+import com.microsoft.intune.samples.taskr.room.Task;
+import com.microsoft.intune.samples.taskr.room.TaskDatabase;
+import com.microsoft.intune.samples.taskr.room.TaskDeleter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Instrumented test, which will execute on an Android device. Fires synthetic MAM notifications
+ * at a WipeManager backed by an in-memory database and checks what is removed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WipeManagerTests {
+    private static final String USER_OID = "00000000-0000-0000-0000-000000000001";
+    private static final String USER_UPN = "user@contoso.com";
+    private static final int TASK_COUNT = 1234;
+    private static final int CHUNK_SIZE = 100;
+
+    private TaskDatabase mDb;
+    private ExecutorService mWriter;
+    private File mExportFile;
+    private final List<String> mForgotten = Collections.synchronizedList(new ArrayList<>());
+    private WipeManager mWipeManager;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDb = Room.inMemoryDatabaseBuilder(context, TaskDatabase.class).build();
+        mWriter = Executors.newSingleThreadExecutor();
+
+        Task[] tasks = new Task[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new Task("task " + i);
+        }
+        mDb.taskDao().insertAll(tasks);
+
+        mExportFile = new File(context.getCacheDir(), "wipe-test.csv");
+        try (FileOutputStream out = new FileOutputStream(mExportFile)) {
+            out.write("1,task\n".getBytes());
+        }
+
+        mWipeManager = new WipeManager(new WipeManager.Steps() {
+            @Override
+            public String resolveAadId(@NonNull final MAMUserNotification notification) {
+                String oid = notification.getUserOid();
+                return oid == null || oid.isEmpty() ? null : oid;
+            }
+
+            @Override
+            public void forgetAccount(@NonNull final String aadId) {
+                mForgotten.add(aadId);
+            }
+
+            @NonNull
+            @Override
+            public CompletableFuture<Integer> deleteTasks(@NonNull final String aadId) {
+                return TaskDeleter.deleteAll(mDb, mWriter, CHUNK_SIZE);
+            }
+
+            @NonNull
+            @Override
+            public List<File> getFiles(@NonNull final String aadId) {
+                return Collections.singletonList(mExportFile);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.shutdownNow();
+        mDb.close();
+        mExportFile.delete();
+    }
+
+    @Test
+    public void wipeNotificationRemovesUserData() throws Exception {
+        assertTrue(receive(mWipeManager, notification(MAMNotificationType.WIPE_USER_DATA, USER_OID)));
+
+        assertEquals(0, mDb.taskDao().count());
+        assertFalse(mExportFile.exists());
+        assertEquals(Collections.singletonList(USER_OID), mForgotten);
+    }
+
+    @Test
+    public void concurrentWipesForOneUserShareOneRun() throws Exception {
+        CompletableFuture<Integer> first = mWipeManager.wipe(USER_OID);
+        CompletableFuture<Integer> second = mWipeManager.wipe(USER_OID);
+
+        assertEquals(TASK_COUNT, (int) first.get(WipeManager.WIPE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(TASK_COUNT, (int) second.get(WipeManager.WIPE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, mForgotten.size());
+    }
+
+    @Test
+    public void otherNotificationsAreIgnored() {
+        assertTrue(mWipeManager.onReceive(notification(MAMNotificationType.REFRESH_POLICY, USER_OID)));
+        // Without an OID, or a signed in account to match the UPN against, there is nobody to wipe
+        assertTrue(mWipeManager.onReceive(notification(MAMNotificationType.WIPE_USER_DATA, null)));
+
+        assertEquals(TASK_COUNT, mDb.taskDao().count());
+        assertTrue(mExportFile.exists());
+        assertTrue(mForgotten.isEmpty());
+    }
+
+    /**
+     * Delivers notification as MAM does: off the main thread, where onReceive waits for the wipe.
+     */
+    static boolean receive(@NonNull final WipeManager wipeManager,
+                           @NonNull final MAMUserNotification notification) throws Exception {
+        ExecutorService mam = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> handled = mam.submit(() -> wipeManager.onReceive(notification));
+            return handled.get(WipeManager.WIPE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } finally {
+            mam.shutdown();
+        }
+    }
+
+    /**
+     * Creates a synthetic notification, as MAM would deliver for the test user.
+     */
+    static MAMUserNotification notification(@NonNull final MAMNotificationType type,
+                                            final String oid) {
+        return new MAMUserNotification() {
+            @Override
+            public String getUserIdentity() {
+                return USER_UPN;
+            }
+
+            @Override
+            public String getUserOid() {
+                return oid;
+            }
+
+            @Override
+            public MAMNotificationType getType() {
+                return type;
+            }
+        };
+    }
+}
@@ -21,17 +21,15 @@ import androidx.fragment.app.FragmentManager;
 import com.google.android.material.navigation.NavigationView;
 
 import com.microsoft.identity.client.AuthenticationCallback;
-import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IAuthenticationResult;
 import com.microsoft.identity.client.exception.MsalException;
 import com.microsoft.identity.client.exception.MsalIntuneAppProtectionPolicyRequiredException;
 import com.microsoft.identity.client.exception.MsalUserCancelException;
-import com.microsoft.intune.mam.client.app.MAMComponents;
-import com.microsoft.intune.mam.policy.MAMEnrollmentManager;
 import com.microsoft.intune.samples.taskr.authentication.AppAccount;
 import com.microsoft.intune.samples.taskr.authentication.AppSettings;
-import com.microsoft.intune.samples.taskr.authentication.MSALUtil;
+import com.microsoft.intune.samples.taskr.authentication.AuthCoordinator;
 import com.microsoft.intune.samples.taskr.fragments.AboutFragment;
+import com.microsoft.intune.samples.taskr.fragments.MetricsFragment;
 import com.microsoft.intune.samples.taskr.fragments.TasksFragment;
 import com.microsoft.intune.samples.taskr.fragments.SubmitFragment;
 import com.microsoft.intune.samples.taskr.trustedroots.ui.TrustedRootsFragment;
@@ -49,7 +47,20 @@ public class MainActivity extends AppCompatActivity
     private static final Logger LOGGER = Logger.getLogger(MainActivity.class.getName());
 
     private AppAccount mUserAccount;
-    private MAMEnrollmentManager mEnrollmentManager;
+    private boolean mSignedIn;
+    private AuthCoordinator mAuthCoordinator;
+
+    /* Returns to the sign in screen if the account is cleared elsewhere, such as by a wipe, and
+     * leaves it if a sign in started before this activity was recreated finishes. */
+    private final AppSettings.Listener mAccountListener = account -> {
+        if (account == null && mSignedIn) {
+            mUserAccount = null;
+            displaySignInView();
+        } else if (account != null && !mSignedIn) {
+            mUserAccount = account;
+            displayMainView();
+        }
+    };
 
     public static final String[] MSAL_SCOPES = {"https://graph.microsoft.com/User.Read"};
 
@@ -57,7 +68,8 @@ public class MainActivity extends AppCompatActivity
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        mEnrollmentManager = MAMComponents.get(MAMEnrollmentManager.class);
+        mAuthCoordinator = AuthCoordinator.getInstance(this);
+        AppSettings.addListener(getApplicationContext(), mAccountListener);
 
         // Get the account info from the app settings.
         // If a user is not signed in, the account will be null.
@@ -71,10 +83,12 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void displaySignInView() {
+        mSignedIn = false;
         setContentView(R.layout.sign_in);
     }
 
     private void displayMainView() {
+        mSignedIn = true;
         setContentView(R.layout.activity_main);
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -88,48 +102,40 @@ public class MainActivity extends AppCompatActivity
 
         NavigationView navigationView = findViewById(R.id.nav_view);
         navigationView.setNavigationItemSelectedListener(this);
+        // The metrics screen is a debugging aid, so only offer it in debug builds
+        navigationView.getMenu().findItem(R.id.nav_metrics).setVisible(BuildConfig.DEBUG);
 
         changeNavigationView(R.id.nav_submit);
         Toast.makeText(this, R.string.auth_success, Toast.LENGTH_SHORT).show();
     }
 
     public void onClickSignIn(final View view) {
-        // initiate the MSAL authentication on a background thread
-        Thread thread = new Thread(() -> {
-            LOGGER.info("Starting interactive auth");
-
-            try {
-                String loginHint = null;
-                if (mUserAccount != null) {
-                    loginHint = mUserAccount.getUPN();
-                }
-                MSALUtil.acquireToken(MainActivity.this, MSAL_SCOPES, loginHint, new AuthCallback());
-            } catch (MsalException | InterruptedException e) {
-                LOGGER.log(Level.SEVERE, getString(R.string.err_auth), e);
-                showMessage("Authentication exception occurred - check logcat for more details.");
-            }
-        });
-        thread.start();
+        // Initiate the MSAL authentication on the auth thread. Extra taps while it runs are ignored.
+        String loginHint = null;
+        if (mUserAccount != null) {
+            loginHint = mUserAccount.getUPN();
+        }
+        mAuthCoordinator.signIn(this, MSAL_SCOPES, loginHint, new AuthCallback());
     }
 
     private void signOutUser() {
-        // Initiate an MSAL sign out on a background thread.
-        final AppAccount effectiveAccount = mUserAccount;
-
-        Thread thread = new Thread(() -> {
-            try {
-                MSALUtil.signOutAccount(this, effectiveAccount.getAADID());
-            } catch (MsalException | InterruptedException e) {
-                LOGGER.log(Level.SEVERE, "Failed to sign out user " + effectiveAccount.getAADID(), e);
+        // Initiate an MSAL and MAM sign out on the auth thread.
+        if (mUserAccount == null) {
+            return;
+        }
+        mAuthCoordinator.signOut(this, mUserAccount, () -> {
+            // The account listener has usually done this already
+            if (mSignedIn) {
+                mUserAccount = null;
+                displaySignInView();
             }
-
-            mEnrollmentManager.unregisterAccountForMAM(effectiveAccount.getUPN(), effectiveAccount.getAADID());
-            AppSettings.clearAccount(getApplicationContext());
-            mUserAccount = null;
-
-            runOnUiThread(this::displaySignInView);
         });
-        thread.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        AppSettings.removeListener(getApplicationContext(), mAccountListener);
+        super.onDestroy();
     }
 
     @Override
@@ -163,6 +169,9 @@ public class MainActivity extends AppCompatActivity
             case R.id.nav_about:
                 frag = new AboutFragment();
                 break;
+            case R.id.nav_metrics:
+                frag = new MetricsFragment();
+                break;
             case R.id.nav_trusted_roots:
                 frag = new TrustedRootsFragment();
                 break;
@@ -231,24 +240,12 @@ public class MainActivity extends AppCompatActivity
 
         @Override
         public void onSuccess(final IAuthenticationResult result) {
-            IAccount account = result.getAccount();
-
-            final String upn = account.getUsername();
-            final String aadId = account.getId();
-            final String tenantId = account.getTenantId();
-            final String authorityURL = account.getAuthority();
-
-            String message = "Authentication succeeded for user " + upn;
-            LOGGER.info(message);
-
-            // Save the user account in the settings, since the user is now "signed in".
-            mUserAccount = new AppAccount(upn, aadId, tenantId, authorityURL);
-            AppSettings.saveAccount(getApplicationContext(), mUserAccount);
-
-            // Register the account for MAM.
-            mEnrollmentManager.registerAccountForMAM(upn, aadId, tenantId, authorityURL);
-
-            displayMainView();
+            // The coordinator has saved the account and registered it for MAM, and the account
+            // listener has usually shown the main view already
+            if (!mSignedIn) {
+                mUserAccount = AppSettings.getAccount(getApplicationContext());
+                displayMainView();
+            }
         }
 
         @Override
@@ -7,14 +7,24 @@ package com.microsoft.intune.samples.taskr;
 
 import android.app.Application;
 import android.util.Log;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.ProcessLifecycleOwner;
 
 import com.microsoft.intune.mam.client.app.MAMComponents;
 import com.microsoft.intune.mam.client.notification.MAMNotificationReceiverRegistry;
 import com.microsoft.intune.mam.policy.MAMEnrollmentManager;
 import com.microsoft.intune.mam.policy.notification.MAMEnrollmentNotification;
 import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.samples.taskr.authentication.AppSettings;
 import com.microsoft.intune.samples.taskr.authentication.AuthenticationCallback;
+import com.microsoft.intune.samples.taskr.authentication.MSALUtil;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+import com.microsoft.intune.samples.taskr.policy.PolicyCache;
 import com.microsoft.intune.samples.taskr.room.RoomManager;
+import com.microsoft.intune.samples.taskr.trustedroots.network.TrustMaterialCache;
+import com.microsoft.intune.samples.taskr.utils.CompactionJobService;
 
 /**
  * Specifies what happens when the app is launched and terminated.
@@ -22,12 +32,33 @@ import com.microsoft.intune.samples.taskr.room.RoomManager;
  * Registers an authentication callback for MAM.
  */
 public class TaskrApplication extends Application {
+    private static final LatencyHistogram ON_CREATE_LATENCY =
+            MetricsRegistry.histogram("startup.application_on_create");
 
     @Override
     public void onCreate() {
         super.onCreate();
+        // Record metrics in debug builds; they can be toggled from the metrics screen
+        MetricsRegistry.setEnabled(BuildConfig.DEBUG);
+        final long start = ON_CREATE_LATENCY.start();
+        // Create the MSAL client in the background, so the first sign-in or token request is quick
+        MSALUtil.prewarm(getApplicationContext());
+        // Start reading the saved account; the database to open depends on it
+        AppSettings.preload(getApplicationContext());
         // Initialize the tasks database
         RoomManager.initRoom(getApplicationContext());
+        /* Write out any batched task changes as soon as the app leaves the foreground, and check
+         * the signed in account hasn't changed behind its back when it comes back */
+        ProcessLifecycleOwner.get().getLifecycle().addObserver(
+                (LifecycleEventObserver) (source, event) -> {
+                    if (event == Lifecycle.Event.ON_STOP) {
+                        RoomManager.flushWrites();
+                    } else if (event == Lifecycle.Event.ON_RESUME) {
+                        MSALUtil.onAppResumed();
+                    }
+                });
+        // Archive completed tasks and give their space back while the device is idle
+        CompactionJobService.schedule(getApplicationContext());
 
         // Registers a MAMAuthenticationCallback, which will try to acquire access tokens for MAM.
         // This is necessary for proper MAM integration.
@@ -61,6 +92,27 @@ public class TaskrApplication extends Application {
             }
             return true;
         }, MAMNotificationType.MAM_ENROLLMENT_RESULT);
+
+        // Removes a user's tasks, exports and tokens on a selective wipe or when they are
+        // unenrolled. Only that user's data is removed; other users of the device keep theirs.
+        MAMNotificationReceiverRegistry registry = MAMComponents.get(MAMNotificationReceiverRegistry.class);
+        WipeManager wipeManager = new WipeManager(getApplicationContext());
+        registry.registerReceiver(wipeManager, MAMNotificationType.WIPE_USER_DATA);
+        registry.registerReceiver(wipeManager, MAMNotificationType.MAM_ENROLLMENT_RESULT);
+
+        // Drops cached policy decisions whenever the user's policy may have changed
+        PolicyCache policyCache = PolicyCache.getInstance(getApplicationContext());
+        registry.registerReceiver(policyCache, MAMNotificationType.REFRESH_POLICY);
+        registry.registerReceiver(policyCache, MAMNotificationType.MANAGEMENT_REMOVED);
+        registry.registerReceiver(policyCache, MAMNotificationType.MAM_ENROLLMENT_RESULT);
+
+        // Trusted roots come with the policy, so they are loaded again after it may have changed
+        TrustMaterialCache trustMaterial = TrustMaterialCache.getInstance();
+        registry.registerReceiver(trustMaterial, MAMNotificationType.REFRESH_POLICY);
+        registry.registerReceiver(trustMaterial, MAMNotificationType.MANAGEMENT_REMOVED);
+        registry.registerReceiver(trustMaterial, MAMNotificationType.MAM_ENROLLMENT_RESULT);
+
+        ON_CREATE_LATENCY.stop(start);
     }
 
     @Override
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.microsoft.intune.mam.client.notification.MAMNotificationReceiver;
+import com.microsoft.intune.mam.policy.MAMEnrollmentManager;
+import com.microsoft.intune.mam.policy.notification.MAMEnrollmentNotification;
+import com.microsoft.intune.mam.policy.notification.MAMNotification;
+import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.mam.policy.notification.MAMUserNotification;
+import com.microsoft.intune.samples.taskr.authentication.AppAccount;
+import com.microsoft.intune.samples.taskr.authentication.AppSettings;
+import com.microsoft.intune.samples.taskr.authentication.MSALUtil;
+import com.microsoft.intune.samples.taskr.authentication.TokenCache;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+import com.microsoft.intune.samples.taskr.policy.PolicyCache;
+import com.microsoft.intune.samples.taskr.room.RoomManager;
+import com.microsoft.intune.samples.taskr.utils.SaveObserver;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes a user's data from the app when MAM asks for it: on a selective wipe
+ * (WIPE_USER_DATA) and when the user is unenrolled.
+ *
+ * A wipe forgets the user's tokens and signs them out of the app, deletes their Tasks in
+ * bounded chunks and then their database, and deletes exported documents. The work runs on a
+ * background thread. MAM delivers notifications off the main thread, and onReceive waits there
+ * for the wipe to finish, so its return value tells MAM whether the data is really gone.
+ */
+public class WipeManager implements MAMNotificationReceiver {
+    private static final Logger LOGGER = Logger.getLogger(WipeManager.class.getName());
+
+    static final long WIPE_TIMEOUT_SECONDS = 60;
+
+    private static final LatencyHistogram WIPE_LATENCY = MetricsRegistry.histogram("wipe.duration");
+    private static final Counter WIPE_ROWS = MetricsRegistry.counter("wipe.rows");
+    private static final Counter WIPE_FAILURES = MetricsRegistry.counter("wipe.failures");
+
+    /**
+     * The steps of a wipe, which tests can replace.
+     */
+    public interface Steps {
+        /**
+         * Finds the user a notification is about.
+         *
+         * @param notification the notification
+         * @return the user's AAD ID, or null if the app doesn't know them
+         */
+        @Nullable
+        String resolveAadId(@NonNull MAMUserNotification notification);
+
+        /**
+         * Forgets everything cached for the user and signs them out of the app.
+         *
+         * @param aadId the user's AAD ID
+         */
+        void forgetAccount(@NonNull String aadId);
+
+        /**
+         * Deletes the user's Tasks, and the database they were kept in.
+         *
+         * @param aadId the user's AAD ID
+         * @return a future completed with the number of Tasks deleted, once they and their
+         * database are gone
+         */
+        @NonNull
+        CompletableFuture<Integer> deleteTasks(@NonNull String aadId);
+
+        /**
+         * @param aadId the user's AAD ID
+         * @return the files holding the user's data outside of the database
+         */
+        @NonNull
+        List<File> getFiles(@NonNull String aadId);
+    }
+
+    private final Steps mSteps;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "taskr-wipe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, CompletableFuture<Integer>> mInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a WipeManager which removes data from the app's database, settings and caches.
+     *
+     * @param context a context used to get the application context
+     */
+    public WipeManager(@NonNull final Context context) {
+        this(new AppSteps(context.getApplicationContext()));
+    }
+
+    /**
+     * @param steps the steps a wipe is made of
+     */
+    public WipeManager(@NonNull final Steps steps) {
+        mSteps = steps;
+    }
+
+    @Override
+    public boolean onReceive(final MAMNotification notification) {
+        if (!(notification instanceof MAMUserNotification) || !shouldWipe(notification)) {
+            return true;
+        }
+
+        final String aadId = mSteps.resolveAadId((MAMUserNotification) notification);
+        if (aadId == null) {
+            LOGGER.warning("Received " + notification.getType() + " for an unknown user");
+            return true;
+        }
+
+        CompletableFuture<Integer> wipe = wipe(aadId);
+        try {
+            wipe.get(WIPE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.SEVERE, "Failed to wipe data for " + aadId, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wipes a user's data, unless a wipe for them is already running, in which case that one is
+     * returned.
+     *
+     * @param aadId the user's AAD ID
+     * @return a future completed with the number of Tasks deleted once the wipe has finished
+     */
+    @NonNull
+    public CompletableFuture<Integer> wipe(@NonNull final String aadId) {
+        CompletableFuture<Integer> mine = new CompletableFuture<>();
+        CompletableFuture<Integer> running = mInProgress.putIfAbsent(aadId, mine);
+        if (running != null) {
+            return running;
+        }
+        mine.whenComplete((deleted, error) -> mInProgress.remove(aadId, mine));
+
+        mExecutor.execute(() -> {
+            final long start = WIPE_LATENCY.start();
+            try {
+                LOGGER.info("Wiping data for " + aadId);
+                // Forget tokens first, so nothing can fetch more data while the rest is deleted
+                mSteps.forgetAccount(aadId);
+                int deleted = mSteps.deleteTasks(aadId).get();
+                for (File file : mSteps.getFiles(aadId)) {
+                    if (file.exists() && !file.delete()) {
+                        throw new IllegalStateException("Failed to delete " + file.getPath());
+                    }
+                }
+                WIPE_ROWS.add(deleted);
+                WIPE_LATENCY.stop(start);
+                LOGGER.info("Wiped " + deleted + " tasks for " + aadId);
+                mine.complete(deleted);
+            } catch (ExecutionException e) {
+                WIPE_FAILURES.increment();
+                mine.completeExceptionally(e.getCause());
+            } catch (InterruptedException e) {
+                WIPE_FAILURES.increment();
+                mine.completeExceptionally(e);
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                WIPE_FAILURES.increment();
+                mine.completeExceptionally(e);
+            }
+        });
+        return mine;
+    }
+
+    private static boolean shouldWipe(@NonNull final MAMNotification notification) {
+        if (notification.getType() == MAMNotificationType.WIPE_USER_DATA) {
+            return true;
+        }
+        return notification instanceof MAMEnrollmentNotification
+                && ((MAMEnrollmentNotification) notification).getEnrollmentResult()
+                == MAMEnrollmentManager.Result.UNENROLLMENT_SUCCEEDED;
+    }
+
+    /**
+     * Wipes data from the app's real database, settings and caches.
+     */
+    private static final class AppSteps implements Steps {
+        private final Context mContext;
+
+        AppSteps(@NonNull final Context context) {
+            mContext = context;
+        }
+
+        /**
+         * Uses the notification's OID, falling back to matching the signed in account's UPN when
+         * it has none.
+         */
+        @Nullable
+        @Override
+        public String resolveAadId(@NonNull final MAMUserNotification notification) {
+            String oid = notification.getUserOid();
+            if (oid != null && !oid.isEmpty()) {
+                return oid;
+            }
+            AppAccount account = AppSettings.getAccount(mContext);
+            if (account != null && account.getUPN().equalsIgnoreCase(notification.getUserIdentity())) {
+                return account.getAADID();
+            }
+            return null;
+        }
+
+        @Override
+        public void forgetAccount(@NonNull final String aadId) {
+            TokenCache.getInstance(mContext).invalidate(aadId);
+            MSALUtil.invalidateAccount(aadId);
+            PolicyCache.getInstance(mContext).invalidate(aadId);
+            AppAccount account = AppSettings.getAccount(mContext);
+            if (account != null && account.getAADID().equals(aadId)) {
+                // Listeners, such as MainActivity, return to the sign in screen
+                AppSettings.clearAccount(mContext);
+            }
+        }
+
+        @NonNull
+        @Override
+        public CompletableFuture<Integer> deleteTasks(@NonNull final String aadId) {
+            return RoomManager.wipeAccount(aadId);
+        }
+
+        @NonNull
+        @Override
+        public List<File> getFiles(@NonNull final String aadId) {
+            // Exports are not kept per user, so any export may hold the user's tasks
+            return Collections.singletonList(SaveObserver.getExportFile());
+        }
+    }
+}
@@ -7,7 +7,12 @@ package com.microsoft.intune.samples.taskr.authentication;
 
 import android.content.SharedPreferences;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Represents an account that is signed in to the app.
@@ -25,7 +30,7 @@ public class AppAccount {
 
 
     public AppAccount(@NonNull final String upn, @NonNull final String aadid,
-                          @NonNull final String tenantid, @NonNull final String authority) {
+                          @Nullable final String tenantid, @Nullable final String authority) {
         this.mUPN = upn;
         this.mAADID = aadid;
         this.mTenantID = tenantid;
@@ -53,8 +58,9 @@ public class AppAccount {
     /**
      * Get the tenant ID.
      *
-     * @return the tenant ID.
+     * @return the tenant ID, or null if it is not known.
      */
+    @Nullable
     public String getTenantID() {
         return mTenantID;
     }
@@ -62,30 +68,67 @@ public class AppAccount {
     /**
      * Get the Authority used to sign in the account.
      *
-     * @return the Authority.
+     * @return the Authority, or null if it is not known.
      */
+    @Nullable
     public String getAuthority() {
         return mAuthority;
     }
 
     /**
-     * The Account should save itself to the provided SharedPreferences object.
+     * The Account should write itself to the provided output, in the format read by
+     * {@link #readFrom(DataInput)}. Each field is preceded by a flag saying whether it is present,
+     * since MSAL does not always supply every one of them.
      *
-     * @param sharedPref
-     *         the preferences where the account should be written.
+     * @param out
+     *         the output the account should be written to.
+     *
+     * @throws IOException
+     *         the account could not be written.
      */
-    public void saveToSettings(SharedPreferences sharedPref) {
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putString(UPN_KEY, mUPN);
-        editor.putString(AADID_KEY, mAADID);
-        editor.putString(TENANTID_KEY, mTenantID);
-        editor.putString(AUTHORITY_KEY, mAuthority);
-        editor.apply();
+    public void writeTo(@NonNull final DataOutput out) throws IOException {
+        writeNullableUTF(out, mUPN);
+        writeNullableUTF(out, mAADID);
+        writeNullableUTF(out, mTenantID);
+        writeNullableUTF(out, mAuthority);
+    }
+
+    /**
+     * Reconstitute an account object written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in
+     *         the input the account was written to.
+     *
+     * @return the reconstituted account object.
+     *
+     * @throws IOException
+     *         the account could not be read.
+     */
+    @NonNull
+    public static AppAccount readFrom(@NonNull final DataInput in) throws IOException {
+        final String upn = readNullableUTF(in);
+        final String aadid = readNullableUTF(in);
+        final String tenantid = readNullableUTF(in);
+        final String authority = readNullableUTF(in);
+        return new AppAccount(upn, aadid, tenantid, authority);
+    }
+
+    private static void writeNullableUTF(@NonNull final DataOutput out, @Nullable final String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readNullableUTF(@NonNull final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
 
     /**
      * Reconstitute the account object from the provided settings, where it was
-     * previously saved.
+     * saved by earlier versions of the app.
      *
      * @param sharedPref
      *         the preferences.
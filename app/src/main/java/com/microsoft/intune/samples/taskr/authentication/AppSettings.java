@@ -6,18 +6,49 @@
 package com.microsoft.intune.samples.taskr.authentication;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
+import java.util.concurrent.CompletableFuture;
+
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Manage settings and account storage.
+ *
+ * Settings are kept in memory, so reading them is cheap enough for the main thread; see
+ * {@link SettingsStore} for how they are stored.
  */
 public class AppSettings {
-    private static final String SETTINGS_PATH = "com.microsoft.intune.samples.taskr.appsettings";
+    private static volatile SettingsStore mStore;
+
+    /**
+     * Notified when the saved account changes.
+     */
+    public interface Listener {
+        /**
+         * Called on the main thread after the saved account has changed.
+         *
+         * @param account
+         *         the new account, or null if it was cleared.
+         */
+        @MainThread
+        void onAccountChanged(@Nullable AppAccount account);
+    }
 
     private AppSettings() { }
 
+    /**
+     * Start loading the settings in the background, so they are ready by the time they are
+     * first read. Called as the app starts.
+     *
+     * @param appContext
+     *         application Context.
+     */
+    public static void preload(@NonNull final Context appContext) {
+        getStore(appContext);
+    }
+
     /**
      * Save the given account in settings.  Currently, only a single account is supported,
      * so saving an account will overwrite an existing account.
@@ -28,12 +59,11 @@ public class AppSettings {
      *         the account to save.
      */
     public static void saveAccount(@NonNull final Context appContext, @NonNull final AppAccount account) {
-        final SharedPreferences prefs = getPrefs(appContext);
-        account.saveToSettings(prefs);
+        getStore(appContext).setAccount(account);
     }
 
     /**
-     * Reconstitute and return the saved account from settings.
+     * Return the saved account.
      *
      * @param appContext
      *         application Context.
@@ -41,8 +71,21 @@ public class AppSettings {
      * @return the account, if one is saved, otherwise null.
      */
     public static AppAccount getAccount(@NonNull final Context appContext) {
-        final SharedPreferences prefs = getPrefs(appContext);
-        return AppAccount.readFromSettings(prefs);
+        return getStore(appContext).get().mAccount;
+    }
+
+    /**
+     * Get the account that was saved when the settings were loaded, without waiting for them to
+     * be loaded.
+     *
+     * @param appContext
+     *         application Context.
+     *
+     * @return a future completed with the loaded account, or with null if none was saved.
+     */
+    @NonNull
+    public static CompletableFuture<AppAccount> whenAccountLoaded(@NonNull final Context appContext) {
+        return getStore(appContext).whenLoaded().thenApply(snapshot -> snapshot.mAccount);
     }
 
     /**
@@ -52,11 +95,44 @@ public class AppSettings {
      *         application Context.
      */
     public static void clearAccount(final Context appContext) {
-        final SharedPreferences prefs = getPrefs(appContext);
-        AppAccount.clearFromSettings(prefs);
+        getStore(appContext).setAccount(null);
+    }
+
+    /**
+     * Register a listener to be notified when the saved account changes.
+     *
+     * @param appContext
+     *         application Context.
+     * @param listener
+     *         the listener to add.
+     */
+    public static void addListener(@NonNull final Context appContext, @NonNull final Listener listener) {
+        getStore(appContext).addListener(listener);
+    }
+
+    /**
+     * Unregister a listener added with {@link #addListener(Context, Listener)}.
+     *
+     * @param appContext
+     *         application Context.
+     * @param listener
+     *         the listener to remove.
+     */
+    public static void removeListener(@NonNull final Context appContext, @NonNull final Listener listener) {
+        getStore(appContext).removeListener(listener);
     }
 
-    private static SharedPreferences getPrefs(final Context appContext) {
-        return appContext.getSharedPreferences(SETTINGS_PATH, Context.MODE_PRIVATE);
+    private static SettingsStore getStore(final Context appContext) {
+        SettingsStore store = mStore;
+        if (store == null) {
+            synchronized (AppSettings.class) {
+                store = mStore;
+                if (store == null) {
+                    store = new SettingsStore(appContext.getApplicationContext());
+                    mStore = store;
+                }
+            }
+        }
+        return store;
     }
 }
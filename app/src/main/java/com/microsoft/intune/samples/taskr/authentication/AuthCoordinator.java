@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.authentication;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.microsoft.identity.client.AuthenticationCallback;
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.exception.MsalException;
+import com.microsoft.intune.mam.client.app.MAMComponents;
+import com.microsoft.intune.mam.policy.MAMEnrollmentManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.FragmentActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+/**
+ * Runs the app's authentication work - interactive sign in, sign out and changes to the saved
+ * account - one at a time on a single thread. Background token refreshes run on TokenCache's own
+ * thread, so a slow refresh never holds up a sign in or sign out.
+ *
+ * A request which is identical to one still in progress is dropped rather than run twice, so
+ * repeatedly tapping sign in starts one MSAL flow. Requests are tied to the lifecycle of the
+ * screen that made them: once it is destroyed, queued sign ins are cancelled and results are no
+ * longer delivered to it. A screen destroyed by a configuration change is being recreated rather
+ * than closed, so its sign in carries on. Work that changes the saved account - saving and
+ * registering a newly signed in account, or signing one out - always runs to completion, and
+ * finishes before any result is delivered. A recreated screen finds out about it through
+ * {@link AppSettings.Listener}.
+ */
+public final class AuthCoordinator {
+    private static final Logger LOGGER = Logger.getLogger(AuthCoordinator.class.getName());
+
+    private static final String SIGN_IN = "signIn";
+    private static final String SIGN_OUT = "signOut:";
+
+    private static AuthCoordinator mInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Request> mInFlight = new ConcurrentHashMap<>();
+
+    private AuthCoordinator(@NonNull final Context appContext) {
+        mContext = appContext;
+        mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "taskr-auth");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the app's auth coordinator.
+     *
+     * @param context a Context used to get the application context.
+     * @return the auth coordinator.
+     */
+    @NonNull
+    public static synchronized AuthCoordinator getInstance(@NonNull final Context context) {
+        if (mInstance == null) {
+            mInstance = new AuthCoordinator(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    /**
+     * Starts an interactive sign in, unless one is already in progress.
+     *
+     * @param activity  the activity MSAL's sign in UI is started from. If it is destroyed before
+     *                  the sign in finishes, callback is not called.
+     * @param scopes    Scopes for the requested token.
+     * @param loginHint a prompt for the login dialog, can be null if unused.
+     * @param callback  called on the main thread with the result of the sign in. On success, the
+     *                  account has already been saved and registered for MAM.
+     * @return true if a sign in was started, false if one was already in progress.
+     */
+    @MainThread
+    public boolean signIn(@NonNull final FragmentActivity activity, @NonNull final String[] scopes,
+                          @Nullable final String loginHint, @NonNull final AuthenticationCallback callback) {
+        final Request request = start(SIGN_IN, activity, true);
+        if (request == null) {
+            LOGGER.info("Ignoring sign in request, one is already in progress");
+            return false;
+        }
+
+        request.mTask = mExecutor.submit(() -> {
+            if (request.mCancelled) {
+                return;
+            }
+            LOGGER.info("Starting interactive auth");
+            try {
+                MSALUtil.acquireToken(activity, scopes, loginHint, new AuthenticationCallback() {
+                    @Override
+                    public void onSuccess(final IAuthenticationResult result) {
+                        // Saved even if the activity is gone, since the user did sign in
+                        mExecutor.execute(() -> {
+                            saveSignedInAccount(result.getAccount());
+                            deliver(request, () -> callback.onSuccess(result));
+                        });
+                    }
+
+                    @Override
+                    public void onError(final MsalException exception) {
+                        deliver(request, () -> callback.onError(exception));
+                    }
+
+                    @Override
+                    public void onCancel() {
+                        deliver(request, callback::onCancel);
+                    }
+                });
+            } catch (MsalException e) {
+                deliver(request, () -> callback.onError(e));
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Interrupted while starting sign in", e);
+                request.finish();
+                Thread.currentThread().interrupt();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Signs account out of MSAL and MAM and clears it from the settings, unless it is already
+     * being signed out. The sign out completes even if owner is destroyed first.
+     *
+     * @param owner       onSignedOut is only called while owner has not been destroyed.
+     * @param account     the account to sign out.
+     * @param onSignedOut called on the main thread once account has been signed out.
+     * @return true if a sign out was started, false if one was already in progress.
+     */
+    @MainThread
+    public boolean signOut(@NonNull final LifecycleOwner owner, @NonNull final AppAccount account,
+                           @NonNull final Runnable onSignedOut) {
+        final String aadId = account.getAADID();
+        final Request request = start(SIGN_OUT + aadId, owner, false);
+        if (request == null) {
+            LOGGER.info("Ignoring sign out request, one is already in progress");
+            return false;
+        }
+
+        request.mTask = mExecutor.submit(() -> {
+            // Cancels the user's scheduled refreshes, and stops any running one from being cached
+            TokenCache.getInstance(mContext).invalidate(aadId);
+            try {
+                MSALUtil.signOutAccount(mContext, aadId);
+            } catch (MsalException | InterruptedException e) {
+                LOGGER.log(Level.SEVERE, "Failed to sign out user " + aadId, e);
+            }
+            MAMComponents.get(MAMEnrollmentManager.class)
+                    .unregisterAccountForMAM(account.getUPN(), aadId);
+            AppSettings.clearAccount(mContext);
+
+            deliver(request, onSignedOut);
+        });
+        return true;
+    }
+
+    /**
+     * Saves account as the signed in account and registers it for MAM. Runs on the auth thread,
+     * so it is ordered with respect to any sign out.
+     */
+    private void saveSignedInAccount(@NonNull final IAccount account) {
+        final String upn = account.getUsername();
+        final String aadId = account.getId();
+        final String tenantId = account.getTenantId();
+        final String authorityURL = account.getAuthority();
+        LOGGER.info("Authentication succeeded for user " + upn);
+
+        AppSettings.saveAccount(mContext, new AppAccount(upn, aadId, tenantId, authorityURL));
+        MAMComponents.get(MAMEnrollmentManager.class)
+                .registerAccountForMAM(upn, aadId, tenantId, authorityURL);
+    }
+
+    /**
+     * Registers a request with key, or returns null if an identical request is in progress.
+     */
+    @MainThread
+    @Nullable
+    private Request start(@NonNull final String key, @NonNull final LifecycleOwner owner,
+                          final boolean cancelWithOwner) {
+        Request request = new Request(key, owner, cancelWithOwner);
+        if (mInFlight.putIfAbsent(key, request) != null) {
+            return null;
+        }
+        owner.getLifecycle().addObserver(request);
+        return request;
+    }
+
+    /**
+     * Runs result on the main thread if request's owner is still alive, then ends request.
+     */
+    private void deliver(@NonNull final Request request, @NonNull final Runnable result) {
+        mMainHandler.post(() -> {
+            if (!request.mCancelled) {
+                result.run();
+            }
+            request.finish();
+        });
+    }
+
+    /**
+     * An in-progress auth request, which stops delivering its result once its owner is destroyed.
+     */
+    private final class Request implements LifecycleEventObserver {
+        private final String mKey;
+        private final LifecycleOwner mOwner;
+        private final boolean mCancelWithOwner;
+        volatile boolean mCancelled;
+        volatile Future<?> mTask;
+
+        Request(@NonNull final String key, @NonNull final LifecycleOwner owner,
+                final boolean cancelWithOwner) {
+            mKey = key;
+            mOwner = owner;
+            mCancelWithOwner = cancelWithOwner;
+        }
+
+        @Override
+        public void onStateChanged(@NonNull final LifecycleOwner source,
+                                   @NonNull final Lifecycle.Event event) {
+            if (event != Lifecycle.Event.ON_DESTROY) {
+                return;
+            }
+            mCancelled = true;
+            if (source instanceof Activity && ((Activity) source).isChangingConfigurations()) {
+                /* The activity is being recreated, so leave the sign in running and in flight.
+                 * Its account is saved here, where the new activity will see it. */
+                return;
+            }
+            Future<?> task = mTask;
+            if (mCancelWithOwner && task != null && task.cancel(false)) {
+                // It never started, so nothing else will end it
+                finish();
+            } else if (mCancelWithOwner) {
+                /* An interactive flow may never call back once its activity is gone, so stop
+                 * blocking new sign ins now rather than waiting for it. */
+                mInFlight.remove(mKey, this);
+            }
+        }
+
+        void finish() {
+            mInFlight.remove(mKey, this);
+            mMainHandler.post(() -> mOwner.getLifecycle().removeObserver(this));
+        }
+    }
+}
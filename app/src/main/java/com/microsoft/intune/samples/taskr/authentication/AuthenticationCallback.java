@@ -7,7 +7,6 @@ package com.microsoft.intune.samples.taskr.authentication;
 
 import android.content.Context;
 
-import com.microsoft.identity.client.IAuthenticationResult;
 import com.microsoft.identity.client.exception.MsalException;
 import com.microsoft.intune.mam.policy.MAMServiceAuthenticationCallback;
 
@@ -35,9 +34,10 @@ public class AuthenticationCallback implements MAMServiceAuthenticationCallback
         try {
             // Create the MSAL scopes by using the default scope of the passed in resource id.
             final String[] scopes = {resourceId + "/.default"};
-            final IAuthenticationResult result = MSALUtil.acquireTokenSilentSync(mContext, aadId, scopes);
-            if (result != null)
-                return result.getAccessToken();
+            // Served from memory unless the cached token is missing or about to expire
+            final String token = TokenCache.getInstance(mContext).getAccessToken(aadId, scopes);
+            if (token != null)
+                return token;
         } catch (MsalException | InterruptedException e) {
             LOGGER.log(Level.SEVERE, "Failed to get token for MAM Service", e);
             return null;
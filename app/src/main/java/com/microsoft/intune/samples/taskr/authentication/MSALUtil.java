@@ -21,8 +21,18 @@ import com.microsoft.identity.client.PublicClientApplication;
 import com.microsoft.identity.client.exception.MsalException;
 import com.microsoft.identity.client.exception.MsalUiRequiredException;
 import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import androidx.annotation.NonNull;
@@ -35,7 +45,31 @@ public final class MSALUtil {
 
     private static final Logger LOGGER = Logger.getLogger(MSALUtil.class.getName());
 
-    private static IPublicClientApplication mMsalClientApplication;
+    private static final LatencyHistogram SILENT_TOKEN_LATENCY =
+            MetricsRegistry.histogram("auth.acquire_token_silent");
+    private static final Counter SILENT_TOKEN_FAILURES =
+            MetricsRegistry.counter("auth.acquire_token_silent.failures");
+
+    private static final LatencyHistogram INIT_LATENCY = MetricsRegistry.histogram("auth.msal_init");
+    private static final LatencyHistogram INIT_WAIT = MetricsRegistry.histogram("auth.msal_init_wait");
+    private static final LatencyHistogram FIRST_TOKEN =
+            MetricsRegistry.histogram("startup.first_token_after_prewarm");
+
+    // Completed with the client once it has been created; replaced with null if creation fails
+    private static final AtomicReference<CompletableFuture<IPublicClientApplication>> CLIENT =
+            new AtomicReference<>();
+    private static final Counter ACCOUNT_CACHE_HITS = MetricsRegistry.counter("auth.account_cache.hits");
+    private static final Counter ACCOUNT_CACHE_MISSES = MetricsRegistry.counter("auth.account_cache.misses");
+
+    // Accounts by AAD ID, so silent token requests don't read MSAL's account store every time
+    private static final Map<String, IAccount> ACCOUNTS = new ConcurrentHashMap<>();
+    // Cleared when the app comes back to the foreground, so the next cache hit checks with MSAL
+    private static final AtomicBoolean ACCOUNTS_CHECKED = new AtomicBoolean(true);
+
+    private static final AtomicBoolean FIRST_TOKEN_RECORDED = new AtomicBoolean();
+    private static volatile long mPrewarmStartNanos;
+
+    private static volatile IPublicClientApplication mMsalClientApplication;
 
     private MSALUtil() { }
 
@@ -64,7 +98,7 @@ public final class MSALUtil {
 
         AcquireTokenParameters params = new AcquireTokenParameters.Builder()
                 .withScopes(Arrays.asList(scopes))
-                .withCallback(callback)
+                .withCallback(new AccountCachingCallback(null, callback))
                 .startAuthorizationFromActivity(fromActivity)
                 .withLoginHint(loginHint)
                 .build();
@@ -107,7 +141,7 @@ public final class MSALUtil {
                 .forAccount(account)
                 .fromAuthority(account.getAuthority())
                 .withScopes(Arrays.asList(scopes))
-                .withCallback(callback)
+                .withCallback(new AccountCachingCallback(aadId, callback))
                 .build();
 
         mMsalClientApplication.acquireTokenSilentAsync(params);
@@ -133,22 +167,39 @@ public final class MSALUtil {
     @WorkerThread
     public static IAuthenticationResult acquireTokenSilentSync(@NonNull final Context appContext, @NonNull final String aadId, @NonNull final String[] scopes)
             throws MsalException, InterruptedException {
+        final long start = SILENT_TOKEN_LATENCY.start();
+        boolean succeeded = false;
+        try {
+            initializeMsalClientApplication(appContext);
+            final IAccount account = getAccount(aadId);
+            if (account == null) {
+                LOGGER.severe("Failed to acquire token: no account found for " + aadId);
+                throw new MsalUiRequiredException(MsalUiRequiredException.NO_ACCOUNT_FOUND, "no account found for " + aadId);
+            }
 
-        initializeMsalClientApplication(appContext);
-        final IAccount account = getAccount(aadId);
-        if (account == null) {
-            LOGGER.severe("Failed to acquire token: no account found for " + aadId);
-            throw new MsalUiRequiredException(MsalUiRequiredException.NO_ACCOUNT_FOUND, "no account found for " + aadId);
+            AcquireTokenSilentParameters params =
+                    new AcquireTokenSilentParameters.Builder()
+                            .forAccount(account)
+                            .fromAuthority(account.getAuthority())
+                            .withScopes(Arrays.asList(scopes))
+                            .build();
+
+            IAuthenticationResult result = mMsalClientApplication.acquireTokenSilent(params);
+            succeeded = result != null;
+            if (succeeded && mPrewarmStartNanos != 0 && FIRST_TOKEN_RECORDED.compareAndSet(false, true)) {
+                FIRST_TOKEN.record(System.nanoTime() - mPrewarmStartNanos);
+            }
+            return result;
+        } catch (MsalUiRequiredException e) {
+            // The cached account may have been removed or signed out elsewhere
+            invalidateAccount(aadId);
+            throw e;
+        } finally {
+            SILENT_TOKEN_LATENCY.stop(start);
+            if (!succeeded) {
+                SILENT_TOKEN_FAILURES.increment();
+            }
         }
-
-        AcquireTokenSilentParameters params =
-                new AcquireTokenSilentParameters.Builder()
-                        .forAccount(account)
-                        .fromAuthority(account.getAuthority())
-                        .withScopes(Arrays.asList(scopes))
-                        .build();
-
-        return mMsalClientApplication.acquireTokenSilent(params);
     }
 
     /**
@@ -185,10 +236,62 @@ public final class MSALUtil {
 
             singleAccountPCA.signOut();
         }
+        invalidateAccount(aadId);
+    }
+
+    /**
+     * Drops the cached MSAL account for a user, so the next request reads it from MSAL again.
+     *
+     * @param aadId
+     *         Id of the user.
+     */
+    public static void invalidateAccount(@NonNull final String aadId) {
+        ACCOUNTS.remove(aadId);
+    }
+
+    /**
+     * Called each time the app comes back to the foreground. The signed in account may have been
+     * changed by another app, through the broker, while this one was in the background, so the
+     * cached accounts are checked against MSAL again: at once for a single account client, and
+     * by the next request that finds its account cached in any case.
+     */
+    public static void onAppResumed() {
+        ACCOUNTS_CHECKED.set(false);
+        IPublicClientApplication client = mMsalClientApplication;
+        if (!(client instanceof ISingleAccountPublicClientApplication)) {
+            return;
+        }
+        ((ISingleAccountPublicClientApplication) client).getCurrentAccountAsync(
+                new ISingleAccountPublicClientApplication.CurrentAccountCallback() {
+                    @Override
+                    public void onAccountLoaded(final IAccount activeAccount) {
+                        // Unchanged, so the cached accounts are still current
+                    }
+
+                    @Override
+                    public void onAccountChanged(final IAccount priorAccount, final IAccount currentAccount) {
+                        LOGGER.info("The signed in account changed while the app was in the background");
+                        ACCOUNTS.clear();
+                    }
+
+                    @Override
+                    public void onError(@NonNull final MsalException exception) {
+                        LOGGER.log(Level.WARNING, "Failed to check the signed in account", exception);
+                    }
+                });
     }
 
     private static IAccount getAccount(String aadId) throws InterruptedException, MsalException {
-        IAccount account = null;
+        IAccount account = ACCOUNTS.get(aadId);
+        if (account != null && ACCOUNTS_CHECKED.compareAndSet(false, true)) {
+            // The first hit since the app came back reads the account from MSAL, as a miss would
+            account = null;
+        }
+        if (account != null) {
+            ACCOUNT_CACHE_HITS.increment();
+            return account;
+        }
+        ACCOUNT_CACHE_MISSES.increment();
 
         if (mMsalClientApplication instanceof IMultipleAccountPublicClientApplication) {
             IMultipleAccountPublicClientApplication multiAccountPCA =
@@ -201,25 +304,142 @@ public final class MSALUtil {
 
             ICurrentAccountResult accountResult = singleAccountPCA.getCurrentAccount();
             if (accountResult != null) {
+                if (accountResult.didAccountChange()) {
+                    // The signed in account changed outside the app; nothing cached is current
+                    ACCOUNTS.clear();
+                }
                 account = accountResult.getCurrentAccount();
                 // make sure this is the correct user
                 if (account != null && !account.getId().equals(aadId))
                     account = null;
             }
         }
+        if (account != null) {
+            ACCOUNTS.put(aadId, account);
+        } else {
+            ACCOUNTS.remove(aadId);
+        }
         return account;
     }
 
-    private static synchronized void initializeMsalClientApplication(final Context appContext)
+    /**
+     * Starts creating the MSAL client in the background, if that has not been started already.
+     * Called from TaskrApplication so that the first sign-in or MAM token request doesn't have to
+     * wait for the MSAL config to be parsed and the broker to be found.
+     *
+     * @param appContext
+     *         the application context.
+     *
+     * @return a future completed with the MSAL client once it has been created.
+     */
+    public static CompletableFuture<IPublicClientApplication> prewarm(@NonNull final Context appContext) {
+        CompletableFuture<IPublicClientApplication> client = CLIENT.get();
+        if (client != null) {
+            return client;
+        }
+
+        final CompletableFuture<IPublicClientApplication> created = new CompletableFuture<>();
+        if (!CLIENT.compareAndSet(null, created)) {
+            return CLIENT.get();
+        }
+        if (mPrewarmStartNanos == 0) {
+            mPrewarmStartNanos = System.nanoTime();
+        }
+
+        final Context context = appContext.getApplicationContext();
+        // PublicClientApplication.create blocks, and must not be called on the main thread
+        Thread thread = new Thread(() -> {
+            final long start = System.nanoTime();
+            try {
+                com.microsoft.identity.client.Logger msalLogger
+                        = com.microsoft.identity.client.Logger.getInstance();
+                msalLogger.setEnableLogcatLog(true);
+                msalLogger.setLogLevel(com.microsoft.identity.client.Logger.LogLevel.VERBOSE);
+                msalLogger.setEnablePII(true);
+
+                mMsalClientApplication = PublicClientApplication.create(context, R.raw.auth_config);
+                INIT_LATENCY.record(System.nanoTime() - start);
+                created.complete(mMsalClientApplication);
+            } catch (MsalException | InterruptedException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to create MSAL client", e);
+                // Let the next caller try again
+                CLIENT.compareAndSet(created, null);
+                created.completeExceptionally(e);
+            }
+        }, "taskr-msal-init");
+        thread.setDaemon(true);
+        thread.start();
+        return created;
+    }
+
+    /**
+     * Waits for the MSAL client to be created, starting its creation if need be. Callers only
+     * wait on the future, so they never block one another on a lock.
+     */
+    private static void initializeMsalClientApplication(final Context appContext)
             throws MsalException, InterruptedException {
-        if (mMsalClientApplication == null) {
-            com.microsoft.identity.client.Logger msalLogger
-                    = com.microsoft.identity.client.Logger.getInstance();
-            msalLogger.setEnableLogcatLog(true);
-            msalLogger.setLogLevel(com.microsoft.identity.client.Logger.LogLevel.VERBOSE);
-            msalLogger.setEnablePII(true);
-
-            mMsalClientApplication = PublicClientApplication.create(appContext, R.raw.auth_config);
+        if (mMsalClientApplication != null) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            prewarm(appContext).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MsalException) {
+                throw (MsalException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            INIT_WAIT.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Keeps the account cache in step with the results of token requests before passing them on.
+     */
+    private static final class AccountCachingCallback implements AuthenticationCallback {
+        private final String mAadId;
+        private final AuthenticationCallback mCallback;
+
+        /**
+         * @param aadId    Id of the user the request is for, or null for an interactive request.
+         * @param callback the callback to pass results on to.
+         */
+        AccountCachingCallback(final String aadId, @NonNull final AuthenticationCallback callback) {
+            mAadId = aadId;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onSuccess(final IAuthenticationResult result) {
+            IAccount account = result.getAccount();
+            if (mAadId == null) {
+                // An interactive sign in may have changed which accounts exist
+                ACCOUNTS.clear();
+            }
+            if (account != null) {
+                ACCOUNTS.put(account.getId(), account);
+            }
+            mCallback.onSuccess(result);
+        }
+
+        @Override
+        public void onError(final MsalException exception) {
+            if (mAadId != null && exception instanceof MsalUiRequiredException) {
+                invalidateAccount(mAadId);
+            }
+            mCallback.onError(exception);
+        }
+
+        @Override
+        public void onCancel() {
+            mCallback.onCancel();
         }
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.authentication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Holds the app's settings in memory as an immutable snapshot, backed by a small binary file.
+ *
+ * The file is read once, in the background, when the store is created. Reads after that are a
+ * volatile read. Updates replace the snapshot at once, notify listeners on the main thread, and
+ * are written out in the background with an AtomicFile, so a crash mid-write never leaves a
+ * corrupt file behind. Settings saved by older versions in SharedPreferences are moved into the
+ * file the first time it is loaded.
+ */
+final class SettingsStore {
+    private static final Logger LOGGER = Logger.getLogger(SettingsStore.class.getName());
+
+    private static final String FILE_NAME = "appsettings.bin";
+    private static final String LEGACY_PREFS = "com.microsoft.intune.samples.taskr.appsettings";
+    private static final int MAGIC = 0x54534b52;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * An immutable copy of every setting.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null);
+
+        @Nullable
+        final AppAccount mAccount;
+
+        Snapshot(@Nullable final AppAccount account) {
+            mAccount = account;
+        }
+    }
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "taskr-settings");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CompletableFuture<Snapshot> mLoaded = new CompletableFuture<>();
+    private final CopyOnWriteArrayList<AppSettings.Listener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot mSnapshot = Snapshot.EMPTY;
+
+    SettingsStore(@NonNull final Context appContext) {
+        mContext = appContext;
+        mFile = new AtomicFile(new File(appContext.getFilesDir(), FILE_NAME));
+        mWriter.execute(this::load);
+    }
+
+    /**
+     * Gets the current settings, waiting for them to be loaded if this is the first access.
+     *
+     * @return the current settings.
+     */
+    @NonNull
+    Snapshot get() {
+        if (!mLoaded.isDone()) {
+            awaitLoad();
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Gets the settings as they were loaded from the file, once they have been. Never waits.
+     *
+     * @return a future completed with the loaded settings.
+     */
+    @NonNull
+    CompletableFuture<Snapshot> whenLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Replaces the saved account, which may be null to clear it.
+     *
+     * @param account the new account.
+     */
+    void setAccount(@Nullable final AppAccount account) {
+        awaitLoad();
+        final Snapshot snapshot = new Snapshot(account);
+        mSnapshot = snapshot;
+        // Writes run in order, and each writes the newest snapshot, so the last update wins
+        mWriter.execute(() -> write(mSnapshot));
+        mMainHandler.post(() -> {
+            for (AppSettings.Listener listener : mListeners) {
+                listener.onAccountChanged(snapshot.mAccount);
+            }
+        });
+    }
+
+    void addListener(@NonNull final AppSettings.Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    void removeListener(@NonNull final AppSettings.Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void awaitLoad() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoaded.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // load never completes exceptionally, but fall back to empty settings if it does
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load() {
+        try {
+            mSnapshot = read();
+        } catch (FileNotFoundException e) {
+            mSnapshot = migrateFromSharedPreferences();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read settings, starting with none", e);
+        } finally {
+            mLoaded.complete(mSnapshot);
+        }
+    }
+
+    @NonNull
+    private Snapshot read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            return readFrom(in);
+        }
+    }
+
+    private void write(@NonNull final Snapshot snapshot) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            writeTo(out, snapshot);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write settings", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+
+    /**
+     * Reads settings in the format written by {@link #writeTo(DataOutput, Snapshot)}.
+     *
+     * @param in the input the settings were written to.
+     * @return the settings.
+     * @throws IOException if the input is not a settings file of a known version, or is cut short.
+     */
+    @NonNull
+    static Snapshot readFrom(@NonNull final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a settings file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown settings version " + version);
+        }
+        return new Snapshot(in.readBoolean() ? AppAccount.readFrom(in) : null);
+    }
+
+    /**
+     * Writes settings, preceded by a magic number and the format version.
+     *
+     * @param out      the output the settings should be written to.
+     * @param snapshot the settings.
+     * @throws IOException if the settings could not be written.
+     */
+    static void writeTo(@NonNull final DataOutput out, @NonNull final Snapshot snapshot)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeBoolean(snapshot.mAccount != null);
+        if (snapshot.mAccount != null) {
+            snapshot.mAccount.writeTo(out);
+        }
+    }
+
+    /**
+     * Moves settings saved by older versions of the app out of SharedPreferences.
+     */
+    @NonNull
+    private Snapshot migrateFromSharedPreferences() {
+        SharedPreferences prefs = mContext.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        Snapshot snapshot = new Snapshot(AppAccount.readFromSettings(prefs));
+        write(snapshot);
+        if (snapshot.mAccount != null) {
+            AppAccount.clearFromSettings(prefs);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.authentication;
+
+import android.content.Context;
+
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.exception.MsalException;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * An in-memory cache of access tokens in front of {@link MSALUtil#acquireTokenSilentSync}, keyed
+ * by user and scope set.
+ *
+ * A cached token is handed out until it is within MIN_VALIDITY_MS of expiring. Tokens which have
+ * been used are refreshed in the background REFRESH_AHEAD_MS before they expire, so callers
+ * rarely wait on MSAL. Concurrent requests for a token that is not cached share a single fetch.
+ */
+public final class TokenCache {
+    private static final Logger LOGGER = Logger.getLogger(TokenCache.class.getName());
+
+    static final long MIN_VALIDITY_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long REFRESH_AHEAD_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Counter HITS = MetricsRegistry.counter("auth.token_cache.hits");
+    private static final Counter MISSES = MetricsRegistry.counter("auth.token_cache.misses");
+    private static final Counter COALESCED = MetricsRegistry.counter("auth.token_cache.coalesced");
+    private static final Counter REFRESHES = MetricsRegistry.counter("auth.token_cache.refreshes");
+
+    private static TokenCache mInstance;
+
+    /**
+     * Fetches tokens when they are not cached or need refreshing.
+     */
+    public interface TokenSource {
+        /**
+         * @param aadId  Id of the user.
+         * @param scopes Scopes for the requested token.
+         * @return the token, or null if none could be acquired.
+         * @throws MsalException        MSAL error occurred.
+         * @throws InterruptedException Thread was interrupted.
+         */
+        @Nullable
+        Token fetch(@NonNull String aadId, @NonNull String[] scopes)
+                throws MsalException, InterruptedException;
+    }
+
+    /**
+     * An access token and when it expires.
+     */
+    public static final class Token {
+        private final String mAccessToken;
+        private final long mExpiresAtMillis;
+
+        public Token(@NonNull final String accessToken, final long expiresAtMillis) {
+            mAccessToken = accessToken;
+            mExpiresAtMillis = expiresAtMillis;
+        }
+
+        /**
+         * @return the access token.
+         */
+        @NonNull
+        public String getAccessToken() {
+            return mAccessToken;
+        }
+
+        /**
+         * @return when the token expires, in milliseconds since the epoch.
+         */
+        public long getExpiresAtMillis() {
+            return mExpiresAtMillis;
+        }
+    }
+
+    private final TokenSource mSource;
+    private final ScheduledExecutorService mScheduler;
+    private final Map<Key, Entry> mEntries = new ConcurrentHashMap<>();
+    private final Map<Key, CompletableFuture<Token>> mInFlight = new ConcurrentHashMap<>();
+    /* Bumped by clear, and for one user by invalidate, so that fetches which started before
+     * either are not cached. Other users' fetches are unaffected by an invalidate. */
+    private long mGeneration;
+    private final Map<String, Long> mUserGenerations = new HashMap<>();
+
+    /**
+     * @param source    fetches tokens which are not cached
+     * @param scheduler runs background refreshes
+     */
+    TokenCache(@NonNull final TokenSource source, @NonNull final ScheduledExecutorService scheduler) {
+        mSource = source;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Gets the app's token cache, which fetches tokens with MSALUtil.
+     *
+     * @param context a Context used to initialize MSAL, if needed.
+     * @return the token cache.
+     */
+    @NonNull
+    public static synchronized TokenCache getInstance(@NonNull final Context context) {
+        if (mInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            /* Refreshes get a thread of their own, so a slow one never holds up a sign in or sign
+             * out. Signing out invalidates the user first, which cancels their refreshes. */
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "taskr-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Refreshes are cancelled whenever their token is dropped; don't keep them queued
+            scheduler.setRemoveOnCancelPolicy(true);
+            mInstance = new TokenCache((aadId, scopes) -> {
+                IAuthenticationResult result = MSALUtil.acquireTokenSilentSync(appContext, aadId, scopes);
+                if (result == null) {
+                    return null;
+                }
+                return new Token(result.getAccessToken(), result.getExpiresOn().getTime());
+            }, scheduler);
+        }
+        return mInstance;
+    }
+
+    /**
+     * Gets an access token for the given user and scopes, from the cache if there is one which
+     * is not about to expire.
+     *
+     * @param aadId  Id of the user.
+     * @param scopes Scopes for the requested token.
+     * @return the access token, or null if none could be acquired.
+     * @throws MsalException        MSAL error occurred.
+     * @throws InterruptedException Thread was interrupted.
+     */
+    @WorkerThread
+    @Nullable
+    public String getAccessToken(@NonNull final String aadId, @NonNull final String[] scopes)
+            throws MsalException, InterruptedException {
+        final Key key = new Key(aadId, scopes);
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.isValid(System.currentTimeMillis())) {
+            entry.mUsed = true;
+            HITS.increment();
+            return entry.mToken.getAccessToken();
+        }
+
+        MISSES.increment();
+        Token token = fetch(key);
+        if (token == null) {
+            return null;
+        }
+        entry = mEntries.get(key);
+        if (entry != null) {
+            entry.mUsed = true;
+        }
+        return token.getAccessToken();
+    }
+
+    /**
+     * Drops every token cached for a user, for example when they sign out or their token is
+     * rejected. Any refreshes scheduled for those tokens are cancelled.
+     *
+     * @param aadId Id of the user.
+     */
+    public synchronized void invalidate(@NonNull final String aadId) {
+        Long generation = mUserGenerations.get(aadId);
+        mUserGenerations.put(aadId, generation == null ? 1 : generation + 1);
+        for (Key key : mEntries.keySet()) {
+            if (key.mAadId.equals(aadId)) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached token.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        for (Key key : mEntries.keySet()) {
+            remove(key);
+        }
+    }
+
+    private void remove(@NonNull final Key key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null && entry.mRefresh != null) {
+            entry.mRefresh.cancel(false);
+        }
+    }
+
+    /**
+     * Fetches a token for key and caches it. If a fetch for key is already running, waits for
+     * that one instead of starting another.
+     */
+    @WorkerThread
+    @Nullable
+    private Token fetch(@NonNull final Key key) throws MsalException, InterruptedException {
+        CompletableFuture<Token> mine = new CompletableFuture<>();
+        CompletableFuture<Token> running = mInFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            COALESCED.increment();
+            return await(running);
+        }
+
+        final long generation = generation(key.mAadId);
+        try {
+            Token token = mSource.fetch(key.mAadId, key.scopes());
+            if (token != null) {
+                store(key, token, generation);
+            }
+            mine.complete(token);
+            return token;
+        } catch (MsalException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            mInFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return a number which changes whenever the tokens of aadId are dropped.
+     */
+    private synchronized long generation(@NonNull final String aadId) {
+        // Both parts only grow, so their sum changes whenever either does
+        Long userGeneration = mUserGenerations.get(aadId);
+        return mGeneration + (userGeneration == null ? 0 : userGeneration);
+    }
+
+    private synchronized void store(@NonNull final Key key, @NonNull final Token token,
+                                    final long generation) {
+        if (generation != generation(key.mAadId)) {
+            // The user was invalidated while this token was being fetched
+            return;
+        }
+        Entry entry = new Entry(token);
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null && previous.mRefresh != null) {
+            previous.mRefresh.cancel(false);
+        }
+
+        long now = System.currentTimeMillis();
+        long lifetime = token.getExpiresAtMillis() - now;
+        long delay = lifetime - REFRESH_AHEAD_MS;
+        if (delay <= 0) {
+            // Short-lived token; refresh it halfway through its remaining validity instead
+            delay = lifetime / 2;
+        }
+        if (delay > 0 && lifetime - delay > MIN_VALIDITY_MS) {
+            entry.mRefresh = mScheduler.schedule(() -> refresh(key, entry), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Fetches a new token for key in the background, if the current one has been used since it
+     * was fetched. Tokens nobody asks for are left to expire.
+     */
+    private void refresh(@NonNull final Key key, @NonNull final Entry entry) {
+        if (mEntries.get(key) != entry || !entry.mUsed) {
+            return;
+        }
+        try {
+            REFRESHES.increment();
+            fetch(key);
+        } catch (MsalException | RuntimeException e) {
+            // The current token is still valid for a while, so the next caller will retry
+            LOGGER.log(Level.WARNING, "Failed to refresh token for " + key.mAadId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Nullable
+    private static Token await(@NonNull final CompletableFuture<Token> future)
+            throws MsalException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MsalException) {
+                throw (MsalException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static final class Entry {
+        final Token mToken;
+        volatile boolean mUsed;
+        volatile ScheduledFuture<?> mRefresh;
+
+        Entry(@NonNull final Token token) {
+            mToken = token;
+        }
+
+        boolean isValid(final long now) {
+            return mToken.getExpiresAtMillis() - now > MIN_VALIDITY_MS;
+        }
+    }
+
+    /**
+     * A user and a set of scopes. Scopes are compared as a set, so their order does not matter.
+     */
+    private static final class Key {
+        final String mAadId;
+        final TreeSet<String> mScopes;
+
+        Key(@NonNull final String aadId, @NonNull final String[] scopes) {
+            mAadId = aadId;
+            mScopes = new TreeSet<>(Arrays.asList(scopes));
+        }
+
+        String[] scopes() {
+            return mScopes.toArray(new String[0]);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return mAadId.equals(key.mAadId) && mScopes.equals(key.mScopes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAadId, mScopes);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.fragments;
+
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.appcompat.widget.SwitchCompat;
+import androidx.fragment.app.Fragment;
+
+import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+/**
+ * A {@link Fragment} subclass that shows the app's metrics. Only reachable in debug builds.
+ */
+public class MetricsFragment extends Fragment {
+    private TextView mMetricsText;
+
+    @Override
+    public View onCreateView(@NonNull final LayoutInflater inflater, final ViewGroup container,
+                             final Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_metrics, container, false);
+
+        mMetricsText = view.findViewById(R.id.metrics_nav_text);
+
+        SwitchCompat enabled = view.findViewById(R.id.metrics_nav_enabled);
+        enabled.setChecked(MetricsRegistry.isEnabled());
+        enabled.setOnCheckedChangeListener((button, isChecked) -> {
+            MetricsRegistry.setEnabled(isChecked);
+            refresh();
+        });
+
+        view.findViewById(R.id.metrics_nav_refresh).setOnClickListener(v -> refresh());
+        view.findViewById(R.id.metrics_nav_reset).setOnClickListener(v -> {
+            MetricsRegistry.reset();
+            refresh();
+        });
+        view.findViewById(R.id.metrics_nav_log).setOnClickListener(v -> MetricsRegistry.log());
+
+        refresh();
+        return view;
+    }
+
+    private void refresh() {
+        mMetricsText.setText(MetricsRegistry.dump());
+    }
+}
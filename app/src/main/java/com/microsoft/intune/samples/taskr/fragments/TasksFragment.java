@@ -11,15 +11,21 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.PagedList;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.microsoft.intune.mam.client.identity.MAMPolicyManager;
-import com.microsoft.intune.mam.policy.SaveLocation;
 import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.authentication.AppAccount;
 import com.microsoft.intune.samples.taskr.authentication.AppSettings;
+import com.microsoft.intune.samples.taskr.policy.PolicyCache;
+import com.microsoft.intune.samples.taskr.room.Task;
 import com.microsoft.intune.samples.taskr.room.TaskListAdapter;
 import com.microsoft.intune.samples.taskr.room.RoomManager;
 import com.microsoft.intune.samples.taskr.utils.Printer;
@@ -30,6 +36,8 @@ import com.microsoft.intune.samples.taskr.utils.SaveObserver;
  * A {@link Fragment} subclass that handles the creation of a view of the tasks screen.
  */
 public class TasksFragment extends Fragment {
+    // How long typing has to pause for before the search is run
+    private static final long SEARCH_DEBOUNCE_MS = 300;
 
     @Override
     public View onCreateView(@NonNull final LayoutInflater inflater, final ViewGroup container,
@@ -37,12 +45,43 @@ public class TasksFragment extends Fragment {
         View rootView = inflater.inflate(R.layout.fragment_tasks, container, false);
 
         // Make a view adapter that will update the list as data updates
-        TaskListAdapter adapter = new TaskListAdapter(getContext());
-        ListView displayList = rootView.findViewById(R.id.tasks_nav_list_view);
+        TaskListAdapter adapter = new TaskListAdapter();
+        RecyclerView displayList = rootView.findViewById(R.id.tasks_nav_list_view);
         displayList.setAdapter(adapter);
 
+        /* Show every task until the user searches, then only the tasks that match. Text which
+         * only differs in surrounding spaces is the same search, so it isn't run again. */
+        MutableLiveData<String> searchText = new MutableLiveData<>("");
+        LiveData<String> searchQuery = Transformations.distinctUntilChanged(
+                Transformations.map(searchText, String::trim));
+        LiveData<PagedList<Task>> tasks = Transformations.switchMap(searchQuery,
+                (String text) -> text.isEmpty()
+                        ? RoomManager.getPagedTasks()
+                        : RoomManager.searchTasks(text));
+
+        SearchView searchView = rootView.findViewById(R.id.tasks_nav_search);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            private final Runnable mSearch = () -> searchText.setValue(searchView.getQuery().toString());
+
+            @Override
+            public boolean onQueryTextSubmit(final String query) {
+                searchView.removeCallbacks(mSearch);
+                searchText.setValue(query);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(final String newText) {
+                // Wait for a pause in typing, rather than start a query for every keystroke
+                searchView.removeCallbacks(mSearch);
+                searchView.postDelayed(mSearch, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
+
         // Define the observer that will notify the adapter of changes
-        RoomManager.getAllTasks().observe(getViewLifecycleOwner(), adapter::setList);
+        tasks.observe(getViewLifecycleOwner(), adapter::submitList);
 
         // Set up the click handlers
         rootView.findViewById(R.id.tasks_nav_save_icon).setOnClickListener(saveListener);
@@ -60,7 +99,7 @@ public class TasksFragment extends Fragment {
     private final View.OnClickListener printListener = (final View view) -> {
         Activity activity = getActivity();
         if (activity != null) {
-            Printer printer = new Printer(activity, this);
+            Printer printer = new Printer(activity);
             printer.printTasks();
         } else {
             toastErrorStr(R.string.err_not_active);
@@ -68,18 +107,22 @@ public class TasksFragment extends Fragment {
     };
 
     /* Example of MAM policy - allow saving to device.
-     * Manually checks whether or not this is allowed.
+     * Manually checks whether or not this is allowed, using the cached policy for the current user.
      * NOTE: if the user's policy asks the app to encrypt files, the output of this process will be useless*/
     private final View.OnClickListener saveListener = (final View view) -> {
-        String currentUser = AppSettings.getAccount(view.getContext()).getAADID();
+        AppAccount account = AppSettings.getAccount(view.getContext());
+        String currentUser = account == null ? null : account.getAADID();
 
-        if (MAMPolicyManager.getPolicy(getActivity())
-                .getIsSaveToLocationAllowed(SaveLocation.LOCAL, currentUser)) {
+        if (PolicyCache.getInstance(view.getContext()).get(currentUser).isSaveToLocalAllowed()) {
             Activity activity = getActivity();
             Context context = getContext();
             if (activity != null && context != null) {
-                RoomManager.getTaskDocument(context, this, true,
-                        new SaveObserver(context, activity, getTargetRequestCode()));
+                // Confirm we're allowed to save to this device, ask for permission if not
+                SaveObserver saveObserver =
+                        new SaveObserver(context, activity, getTargetRequestCode());
+                saveObserver.confirmWritePermission();
+                RoomManager.saveTaskDocument(context, this, true, SaveObserver.getExportFile(),
+                        null, saveObserver);
             } else {
                 toastErrorStr(R.string.err_not_active);
             }
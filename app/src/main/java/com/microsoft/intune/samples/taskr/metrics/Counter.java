@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, such as rows written or failed requests. Cheap to update from many threads
+ * at once; does nothing but read a volatile flag while metrics are disabled.
+ */
+public final class Counter {
+    private final LongAdder mCount = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        if (MetricsRegistry.isEnabled()) {
+            mCount.increment();
+        }
+    }
+
+    /**
+     * Adds amount to the count.
+     *
+     * @param amount the number of events to add
+     */
+    public void add(final long amount) {
+        if (MetricsRegistry.isEnabled()) {
+            mCount.add(amount);
+        }
+    }
+
+    /**
+     * @return the number of events counted since the last reset
+     */
+    public long get() {
+        return mCount.sum();
+    }
+
+    void reset() {
+        mCount.reset();
+    }
+}
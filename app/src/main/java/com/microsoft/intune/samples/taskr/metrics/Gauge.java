@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.metrics;
+
+/**
+ * A value that is read when the metrics are dumped, rather than updated as things happen,
+ * such as the depth of a queue.
+ */
+public interface Gauge {
+    /**
+     * Called on whichever thread dumps the metrics, so must be safe to call from any thread.
+     *
+     * @return the current value
+     */
+    long getValue();
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, in the style of an HDR histogram. Each power of two
+ * is split into SUB_BUCKETS linear buckets, so any recorded value is known to within 1/8th,
+ * from a nanosecond up to centuries, in a fixed few kilobytes. Recording is lock free.
+ *
+ * Typical use, which costs a single volatile read while metrics are disabled:
+ * <pre>
+ * long start = histogram.start();
+ * doWork();
+ * histogram.stop(start);
+ * </pre>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mTotal = new LongAdder();
+    private final AtomicLong mMax = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return a token to pass to {@link #stop(long)}, which is 0 if metrics are disabled
+     */
+    public long start() {
+        return MetricsRegistry.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start was returned by {@link #start()}.
+     *
+     * @param start the token returned by {@link #start()}
+     */
+    public void stop(final long start) {
+        if (start != 0) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds; negative durations are recorded as 0
+     */
+    public void record(final long nanos) {
+        if (!MetricsRegistry.isEnabled()) {
+            return;
+        }
+        long value = Math.max(0, nanos);
+        mBuckets.incrementAndGet(indexOf(value));
+        mCount.increment();
+        mTotal.add(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    /**
+     * @return the mean of the durations recorded, in nanoseconds, or 0 if there are none
+     */
+    public double getMean() {
+        long count = mCount.sum();
+        return count == 0 ? 0 : (double) mTotal.sum() / count;
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Estimates a percentile of the durations recorded. The result is the upper bound of the
+     * bucket the percentile falls in, so it overestimates by at most 1/8th.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the estimated duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(final double percentile) {
+        long count = mCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.reset();
+        mTotal.reset();
+        mMax.set(0);
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (subBucket + 1) * width - 1;
+    }
+}
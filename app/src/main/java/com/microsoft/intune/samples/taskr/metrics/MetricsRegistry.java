@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * An in-process registry of the app's counters, latency histograms and gauges. Metrics are looked
+ * up once, usually into a static field, and then updated directly:
+ * <pre>
+ * private static final LatencyHistogram EXPORT = MetricsRegistry.histogram("export.duration");
+ * </pre>
+ *
+ * Metrics are disabled by default. While they are, updating one costs a single volatile read.
+ */
+public final class MetricsRegistry {
+    private static final Logger LOGGER = Logger.getLogger(MetricsRegistry.class.getName());
+
+    private static volatile boolean mEnabled;
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * @return true if metrics are being recorded
+     */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts or stops recording metrics. Values already recorded are kept.
+     *
+     * @param enabled true to record metrics
+     */
+    public static void setEnabled(final boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Gets the counter called name, creating it if it does not exist yet.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    @NonNull
+    public static Counter counter(@NonNull final String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Gets the histogram called name, creating it if it does not exist yet.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    @NonNull
+    public static LatencyHistogram histogram(@NonNull final String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers gauge as name, replacing any gauge already registered with that name.
+     *
+     * @param name  the name of the gauge
+     * @param gauge read each time the metrics are dumped
+     */
+    public static void gauge(@NonNull final String name, @NonNull final Gauge gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /**
+     * Sets every counter and histogram back to zero. Gauges are left alone.
+     */
+    public static void reset() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Formats the current value of every metric, one per line, sorted by name.
+     *
+     * @return the metrics as text
+     */
+    @NonNull
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mEnabled ? "Metrics enabled\n" : "Metrics disabled\n");
+
+        builder.append("\nCounters\n");
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            builder.append(String.format(Locale.US, "%s = %d%n",
+                    entry.getKey(), entry.getValue().get()));
+        }
+
+        builder.append("\nGauges\n");
+        for (Map.Entry<String, Gauge> entry : new ConcurrentSkipListMap<>(GAUGES).entrySet()) {
+            builder.append(String.format(Locale.US, "%s = %d%n",
+                    entry.getKey(), entry.getValue().getValue()));
+        }
+
+        builder.append("\nLatencies (ms)\n");
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(String.format(Locale.US,
+                    "%s: n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f%n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes {@link #dump()} to the log.
+     */
+    public static void log() {
+        LOGGER.info(dump());
+    }
+}
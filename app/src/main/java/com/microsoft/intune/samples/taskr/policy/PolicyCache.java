@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.policy;
+
+import android.content.Context;
+
+import com.microsoft.intune.mam.client.identity.MAMPolicyManager;
+import com.microsoft.intune.mam.client.notification.MAMNotificationReceiver;
+import com.microsoft.intune.mam.policy.notification.MAMNotification;
+import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.mam.policy.notification.MAMUserNotification;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An in-memory cache of {@link PolicySnapshot}s, keyed by user.
+ *
+ * A user's snapshot is built from the MAM policy the first time it is asked for, and handed out
+ * from the cache after that. Register the cache for REFRESH_POLICY, MANAGEMENT_REMOVED and
+ * MAM_ENROLLMENT_RESULT notifications, so that it is dropped whenever the policy may have changed.
+ */
+public final class PolicyCache implements MAMNotificationReceiver {
+    private static final Logger LOGGER = Logger.getLogger(PolicyCache.class.getName());
+
+    // ConcurrentHashMap can't hold null keys, so this stands in for "nobody signed in"
+    private static final String NO_USER = "";
+
+    private static final Counter HITS = MetricsRegistry.counter("policy.cache.hits");
+    private static final Counter MISSES = MetricsRegistry.counter("policy.cache.misses");
+    private static final Counter INVALIDATIONS = MetricsRegistry.counter("policy.cache.invalidations");
+
+    private static PolicyCache mInstance;
+
+    /**
+     * Works out a user's policy when it is not cached.
+     */
+    public interface PolicyProvider {
+        /**
+         * @param aadId the AAD ID of the user, or null if nobody is signed in.
+         * @return the policy decisions for the user.
+         */
+        @NonNull
+        PolicySnapshot getPolicy(@Nullable String aadId);
+    }
+
+    private final PolicyProvider mProvider;
+    private final Map<String, PolicySnapshot> mSnapshots = new ConcurrentHashMap<>();
+
+    /**
+     * @param provider works out policies which are not cached
+     */
+    PolicyCache(@NonNull final PolicyProvider provider) {
+        mProvider = provider;
+    }
+
+    /**
+     * Gets the app's policy cache, which reads policies from the MAM SDK.
+     *
+     * @param context a Context used to get the application context.
+     * @return the policy cache.
+     */
+    @NonNull
+    public static synchronized PolicyCache getInstance(@NonNull final Context context) {
+        if (mInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            mInstance = new PolicyCache(aadId ->
+                    PolicySnapshot.from(MAMPolicyManager.getPolicy(appContext), aadId));
+        }
+        return mInstance;
+    }
+
+    /**
+     * Gets the policy decisions for a user, from the cache if they have been worked out already.
+     *
+     * @param aadId the AAD ID of the user, or null if nobody is signed in.
+     * @return the policy decisions for the user.
+     */
+    @NonNull
+    public PolicySnapshot get(@Nullable final String aadId) {
+        final String key = aadId == null ? NO_USER : aadId;
+        PolicySnapshot snapshot = mSnapshots.get(key);
+        if (snapshot != null) {
+            HITS.increment();
+            return snapshot;
+        }
+        /* Invalidations lock the same bin as this computation, so a snapshot built from the old
+         * policy is never left behind by one that races with it. */
+        return mSnapshots.computeIfAbsent(key, k -> {
+            MISSES.increment();
+            return mProvider.getPolicy(aadId);
+        });
+    }
+
+    /**
+     * Drops a user's cached policy.
+     *
+     * @param aadId the AAD ID of the user.
+     */
+    public void invalidate(@NonNull final String aadId) {
+        INVALIDATIONS.increment();
+        mSnapshots.remove(aadId);
+    }
+
+    /**
+     * Drops every cached policy.
+     */
+    public void clear() {
+        INVALIDATIONS.increment();
+        mSnapshots.clear();
+    }
+
+    @Override
+    public boolean onReceive(final MAMNotification notification) {
+        String oid = notification instanceof MAMUserNotification
+                ? ((MAMUserNotification) notification).getUserOid() : null;
+        LOGGER.info("Policy may have changed: " + notification.getType());
+        /* The policy used while nobody is signed in can change along with the user's, and
+         * enrollment results change which policy applies at all, so only a policy refresh for a
+         * known user is narrowed down to that user. */
+        if (notification.getType() == MAMNotificationType.REFRESH_POLICY
+                && oid != null && !oid.isEmpty()) {
+            invalidate(oid);
+            mSnapshots.remove(NO_USER);
+        } else {
+            clear();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.policy;
+
+import com.microsoft.intune.mam.policy.AppPolicy;
+import com.microsoft.intune.mam.policy.SaveLocation;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The MAM policy decisions the app makes for a user, worked out once and then kept as an
+ * immutable object so that they can be read without calling into the SDK.
+ *
+ * Printing is not included: MAM blocks it by itself when the policy forbids it.
+ */
+public final class PolicySnapshot {
+    private final boolean mSaveToLocalAllowed;
+    private final boolean mSaveToPersonalAllowed;
+    private final boolean mScreenCaptureAllowed;
+    private final boolean mFileEncryptionInUse;
+
+    /**
+     * @param saveToLocalAllowed    whether files may be saved to the device
+     * @param saveToPersonalAllowed whether data may be shared to personal, unmanaged locations
+     * @param screenCaptureAllowed  whether screenshots of the app may be taken
+     * @param fileEncryptionInUse   whether MAM encrypts the files the app writes
+     */
+    public PolicySnapshot(final boolean saveToLocalAllowed, final boolean saveToPersonalAllowed,
+                          final boolean screenCaptureAllowed, final boolean fileEncryptionInUse) {
+        mSaveToLocalAllowed = saveToLocalAllowed;
+        mSaveToPersonalAllowed = saveToPersonalAllowed;
+        mScreenCaptureAllowed = screenCaptureAllowed;
+        mFileEncryptionInUse = fileEncryptionInUse;
+    }
+
+    /**
+     * Reads every decision the app needs out of a MAM policy.
+     *
+     * @param policy the policy in effect.
+     * @param aadId  the AAD ID of the user, or null if nobody is signed in.
+     * @return the decisions for the user.
+     */
+    @NonNull
+    public static PolicySnapshot from(@NonNull final AppPolicy policy, @Nullable final String aadId) {
+        return new PolicySnapshot(
+                policy.getIsSaveToLocationAllowed(SaveLocation.LOCAL, aadId),
+                policy.getIsSaveToPersonalAllowed(),
+                policy.getIsScreenCaptureAllowed(),
+                policy.diagnosticIsFileEncryptionInUse());
+    }
+
+    /**
+     * @return true if files may be saved to the device.
+     */
+    public boolean isSaveToLocalAllowed() {
+        return mSaveToLocalAllowed;
+    }
+
+    /**
+     * @return true if data may be shared to personal, unmanaged locations.
+     */
+    public boolean isSaveToPersonalAllowed() {
+        return mSaveToPersonalAllowed;
+    }
+
+    /**
+     * @return true if screenshots of the app may be taken.
+     */
+    public boolean isScreenCaptureAllowed() {
+        return mScreenCaptureAllowed;
+    }
+
+    /**
+     * @return true if MAM encrypts the files the app writes, so only managed apps can read them.
+     */
+    public boolean isFileEncryptionInUse() {
+        return mFileEncryptionInUse;
+    }
+}
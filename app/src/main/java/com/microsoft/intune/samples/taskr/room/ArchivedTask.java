@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A completed task which has been moved out of the task table by {@link TaskCompactor}, so that
+ * the history of completed tasks is kept without slowing down queries over the open ones.
+ * Archived tasks keep the id they had as a task.
+ */
+@Entity(tableName = ArchivedTask.TABLE)
+public class ArchivedTask {
+    /**
+     * The name of the table archived tasks are stored in.
+     */
+    public static final String TABLE = "task_archive";
+
+    @PrimaryKey
+    private final long mId;
+
+    private final String mDescription;
+
+    private final long mCreatedAt;
+
+    private final long mCompletedAt;
+
+    private final int mPriority;
+
+    public ArchivedTask(final long id, final String description, final long createdAt,
+                        final long completedAt, final int priority) {
+        this.mId = id;
+        this.mDescription = description;
+        this.mCreatedAt = createdAt;
+        this.mCompletedAt = completedAt;
+        this.mPriority = priority;
+    }
+
+    /**
+     * Gets the id the task had before it was archived.
+     * @return the task's id
+     */
+    public long getId() {
+        return this.mId;
+    }
+
+    /**
+     * Gets the description of the task.
+     * @return the task's description
+     */
+    public String getDescription() {
+        return this.mDescription;
+    }
+
+    /**
+     * Gets when the task was created.
+     * @return the time, in milliseconds since the epoch, or 0 if it is not known
+     */
+    public long getCreatedAt() {
+        return this.mCreatedAt;
+    }
+
+    /**
+     * Gets when the task was completed.
+     * @return the time, in milliseconds since the epoch
+     */
+    public long getCompletedAt() {
+        return this.mCompletedAt;
+    }
+
+    /**
+     * Gets the priority the task had.
+     * @return the task's priority
+     */
+    public int getPriority() {
+        return this.mPriority;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A TaskRowEncoder that writes Tasks as a CSV document.
+ */
+public class CsvTaskRowEncoder implements TaskRowEncoder {
+    private static final String COL_SEPARATOR = ",";
+    private static final String LINE_SEPARATOR = "\n";
+
+    @Override
+    public void writeHeader(@NonNull final Writer out, @NonNull final String idHeader,
+                            @NonNull final String descriptionHeader) throws IOException {
+        // Entries in the CSV must be wrapped in quotes to be opened by Excel
+        out.write("\"");
+        out.write(idHeader);
+        out.write("\"");
+        out.write(COL_SEPARATOR);
+        out.write("\"");
+        out.write(descriptionHeader);
+        out.write("\"");
+    }
+
+    @Override
+    public void writeRow(@NonNull final Writer out, @NonNull final Task task) throws IOException {
+        out.write(LINE_SEPARATOR);
+        out.write(task.toString(COL_SEPARATOR));
+    }
+
+    @Override
+    public void writeFooter(@NonNull final Writer out) {
+        // CSV documents have no footer
+    }
+}
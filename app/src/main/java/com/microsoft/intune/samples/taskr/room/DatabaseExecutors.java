@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executors the app's database work runs on. SQLite in WAL mode allows one writer alongside
+ * any number of readers, so writes go to a single thread and reads to threads of their own.
+ * A long export then never sits in front of a user's insert.
+ *
+ * Reads are split in two. Room's own queries and the pages of the task list run on the query
+ * pool, and long reads such as exports and printing run on the reader pool, so a running export
+ * never holds up the screen.
+ *
+ * Every executor has a bounded queue and keeps track of how deep its queue gets and how long
+ * work waits in it. A full queue makes callers wait rather than fail; see {@link MeteredExecutor}.
+ */
+public final class DatabaseExecutors {
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_READER_THREADS = 2;
+    public static final int DEFAULT_READ_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_QUERY_THREADS = 2;
+    public static final int DEFAULT_QUERY_QUEUE_CAPACITY = 64;
+
+    private final MeteredExecutor mWriter;
+    private final MeteredExecutor mReaders;
+    private final MeteredExecutor mQueries;
+
+    /**
+     * Creates executors with the default thread counts and queue bounds.
+     */
+    public DatabaseExecutors() {
+        this(DEFAULT_WRITE_QUEUE_CAPACITY, DEFAULT_READER_THREADS, DEFAULT_READ_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param writeQueueCapacity the most writes that may wait for the writer thread
+     * @param readerThreads      the number of threads long reads run on
+     * @param readQueueCapacity  the most long reads that may wait for a reader thread
+     */
+    public DatabaseExecutors(final int writeQueueCapacity, final int readerThreads,
+                             final int readQueueCapacity) {
+        mWriter = new MeteredExecutor("taskr-db-writer", 1, writeQueueCapacity);
+        mReaders = new MeteredExecutor("taskr-db-reader", readerThreads, readQueueCapacity);
+        mQueries = new MeteredExecutor("taskr-db-query", DEFAULT_QUERY_THREADS,
+                DEFAULT_QUERY_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Gets the executor for work that writes to the database. Runs one task at a time, in order.
+     *
+     * @return the writer executor
+     */
+    public MeteredExecutor writer() {
+        return mWriter;
+    }
+
+    /**
+     * Gets the executor for long reads, such as exports and printing.
+     *
+     * @return the reader executor
+     */
+    public MeteredExecutor readers() {
+        return mReaders;
+    }
+
+    /**
+     * Gets the executor for Room's queries and for loading pages of tasks for the screen.
+     *
+     * @return the query executor
+     */
+    public MeteredExecutor queries() {
+        return mQueries;
+    }
+
+    /**
+     * Stops the executors once the work already queued has run.
+     */
+    public void shutdown() {
+        mWriter.shutdown();
+        mReaders.shutdown();
+        mQueries.shutdown();
+    }
+
+    /**
+     * A ThreadPoolExecutor with a fixed number of threads and a bounded queue that records how
+     * long each task waits before it starts.
+     *
+     * When the queue is full, a caller off the main thread waits for room in it, which slows
+     * producers down to the pace of the database. The main thread never waits: its work is
+     * queued past the bound instead. It only ever queues a little at a time, such as a flush or
+     * the next page of a list. Nor do the executor's own threads, which would otherwise wait for
+     * themselves when work queues its next step. Work is only rejected once the executor has
+     * been shut down.
+     */
+    public static final class MeteredExecutor extends ThreadPoolExecutor {
+        // The executor whose task the current thread is running, if any
+        private static final ThreadLocal<MeteredExecutor> RUNNING_ON = new ThreadLocal<>();
+
+        private final Semaphore mRoom;
+        private final AtomicLong mExecuted = new AtomicLong();
+        private final AtomicLong mTotalWaitNanos = new AtomicLong();
+        private final AtomicLong mMaxWaitNanos = new AtomicLong();
+        private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+        MeteredExecutor(@NonNull final String name, final int threads, final int queueCapacity) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+            mRoom = new Semaphore(queueCapacity);
+        }
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            final boolean holdsRoom = acquireRoom();
+            final long queuedAt = System.nanoTime();
+            try {
+                super.execute(() -> {
+                    if (holdsRoom) {
+                        mRoom.release();
+                    }
+                    recordWait(System.nanoTime() - queuedAt);
+                    command.run();
+                });
+            } catch (RejectedExecutionException e) {
+                if (holdsRoom) {
+                    mRoom.release();
+                }
+                throw e;
+            }
+            int depth = getQueue().size();
+            mMaxQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        /**
+         * Takes a place in the queue, waiting for one if the caller is not the main thread.
+         *
+         * @return true if a place was taken and must be given back when the work starts
+         */
+        private boolean acquireRoom() {
+            if (isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            if (mRoom.tryAcquire()) {
+                return true;
+            }
+            if (Looper.myLooper() == Looper.getMainLooper() || RUNNING_ON.get() == this) {
+                return false;
+            }
+            try {
+                mRoom.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+            }
+        }
+
+        @Override
+        protected void beforeExecute(final Thread thread, final Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            RUNNING_ON.set(this);
+        }
+
+        private void recordWait(final long waitNanos) {
+            mExecuted.incrementAndGet();
+            mTotalWaitNanos.addAndGet(waitNanos);
+            mMaxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        /**
+         * @return the number of tasks currently waiting for a thread
+         */
+        public int getQueueDepth() {
+            return getQueue().size();
+        }
+
+        /**
+         * @return the most tasks that have been waiting for a thread at once
+         */
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth.get();
+        }
+
+        /**
+         * @return the mean time tasks have waited for a thread, in milliseconds
+         */
+        public double getAverageWaitMillis() {
+            long executed = mExecuted.get();
+            return executed == 0 ? 0 : mTotalWaitNanos.get() / (executed * 1e6);
+        }
+
+        /**
+         * @return the longest time a task has waited for a thread, in milliseconds
+         */
+        public double getMaxWaitMillis() {
+            return mMaxWaitNanos.get() / 1e6;
+        }
+    }
+
+    /**
+     * Names the threads of an executor so they can be told apart in traces.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(@NonNull final String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the task database that was in use when it was taken out open, so work that outlives a
+ * single query, such as printing, can keep reading from it. Must be released once the work is
+ * done; releasing it more than once does nothing.
+ */
+public final class DatabaseLease {
+    private final TaskDatabasePool mPool;
+    private final TaskDatabasePool.Entry mEntry;
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    DatabaseLease(@NonNull final TaskDatabasePool pool, @NonNull final TaskDatabasePool.Entry entry) {
+        mPool = pool;
+        mEntry = entry;
+    }
+
+    /**
+     * Gets the DAO for the leased database's tasks. Must only be used off the main thread.
+     *
+     * @return the task DAO
+     */
+    @NonNull
+    public TaskDao getTaskDao() {
+        return mEntry.mDatabase.taskDao();
+    }
+
+    @NonNull
+    TaskDatabase getDatabase() {
+        return mEntry.mDatabase;
+    }
+
+    /**
+     * Lets the database be closed, once nobody else is using it.
+     */
+    public void release() {
+        if (mReleased.compareAndSet(false, true)) {
+            mPool.release(mEntry);
+        }
+    }
+}
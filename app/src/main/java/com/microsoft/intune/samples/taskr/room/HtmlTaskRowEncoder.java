@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A TaskRowEncoder that writes Tasks as an HTML document containing a single table.
+ */
+public class HtmlTaskRowEncoder implements TaskRowEncoder {
+    private static final String LINE_SEPARATOR = "\n";
+
+    @Override
+    public void writeHeader(@NonNull final Writer out, @NonNull final String idHeader,
+                            @NonNull final String descriptionHeader) throws IOException {
+        // Create the document/table
+        out.write("<!DOCTYPE html><html><body><table>");
+        out.write(LINE_SEPARATOR);
+        // Set the header
+        out.write("<tr><th>");
+        out.write(idHeader);
+        out.write("</th><th>");
+        out.write(descriptionHeader);
+        out.write("</th></tr>");
+        out.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void writeRow(@NonNull final Writer out, @NonNull final Task task) throws IOException {
+        out.write("<tr><td>");
+        out.write(Long.toString(task.getId()));
+        out.write("</td><td>");
+        out.write(task.getDescription());
+        out.write("</td></tr>");
+        out.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void writeFooter(@NonNull final Writer out) throws IOException {
+        // End the document/table
+        out.write(LINE_SEPARATOR);
+        out.write("</table></body></html>");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+
+/**
+ * Opens databases with auto_vacuum set to INCREMENTAL, so {@link TaskCompactor} can give free
+ * pages back a few at a time.
+ *
+ * SQLite only takes the setting while a database has no tables; after that, changing it takes a
+ * full VACUUM. It is set in onConfigure, which runs before Room creates the tables of a new
+ * database. For a database which already has tables, the pragma does nothing.
+ */
+public final class IncrementalVacuumOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+    private final SupportSQLiteOpenHelper.Factory mDelegate = new FrameworkSQLiteOpenHelperFactory();
+
+    @NonNull
+    @Override
+    public SupportSQLiteOpenHelper create(@NonNull final SupportSQLiteOpenHelper.Configuration configuration) {
+        final SupportSQLiteOpenHelper.Callback callback = configuration.callback;
+        return mDelegate.create(SupportSQLiteOpenHelper.Configuration.builder(configuration.context)
+                .name(configuration.name)
+                .callback(new SupportSQLiteOpenHelper.Callback(callback.version) {
+                    @Override
+                    public void onConfigure(@NonNull final SupportSQLiteDatabase db) {
+                        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                        callback.onConfigure(db);
+                    }
+
+                    @Override
+                    public void onCreate(@NonNull final SupportSQLiteDatabase db) {
+                        callback.onCreate(db);
+                    }
+
+                    @Override
+                    public void onUpgrade(@NonNull final SupportSQLiteDatabase db, final int oldVersion,
+                                          final int newVersion) {
+                        callback.onUpgrade(db, oldVersion, newVersion);
+                    }
+
+                    @Override
+                    public void onDowngrade(@NonNull final SupportSQLiteDatabase db, final int oldVersion,
+                                            final int newVersion) {
+                        callback.onDowngrade(db, oldVersion, newVersion);
+                    }
+
+                    @Override
+                    public void onOpen(@NonNull final SupportSQLiteDatabase db) {
+                        callback.onOpen(db);
+                    }
+
+                    @Override
+                    public void onCorruption(@NonNull final SupportSQLiteDatabase db) {
+                        callback.onCorruption(db);
+                    }
+                })
+                .build());
+    }
+}
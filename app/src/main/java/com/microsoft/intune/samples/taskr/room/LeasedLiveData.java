@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+
+import java.util.logging.Logger;
+
+/**
+ * Passes on the values of a LiveData that queries a pooled database, holding a lease on the
+ * database while it has active observers, so the pool never closes it from under them.
+ *
+ * @param <T> the type of the values
+ */
+final class LeasedLiveData<T> extends MediatorLiveData<T> {
+    private static final Logger LOGGER = Logger.getLogger(LeasedLiveData.class.getName());
+
+    private final TaskDatabasePool mPool;
+    private final TaskDatabasePool.Entry mEntry;
+    private boolean mLeased;
+
+    LeasedLiveData(@NonNull final TaskDatabasePool pool, @NonNull final TaskDatabasePool.Entry entry,
+                   @NonNull final LiveData<T> source) {
+        mPool = pool;
+        mEntry = entry;
+        addSource(source, this::setValue);
+    }
+
+    @Override
+    protected void onActive() {
+        mLeased = mPool.lease(mEntry);
+        if (mLeased) {
+            super.onActive();
+        } else {
+            // Deleted, or handed to an account, while nobody was watching; it has nothing to show
+            LOGGER.info("Not observing closed task database " + mEntry.mName);
+        }
+    }
+
+    @Override
+    protected void onInactive() {
+        if (mLeased) {
+            super.onInactive();
+            mLeased = false;
+            mPool.release(mEntry);
+        }
+    }
+}
@@ -6,17 +6,37 @@
 package com.microsoft.intune.samples.taskr.room;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Observer;
-import androidx.room.Room;
+import androidx.paging.LivePagedListBuilder;
+import androidx.paging.PagedList;
 
 import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.authentication.AppAccount;
+import com.microsoft.intune.samples.taskr.authentication.AppSettings;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+import com.microsoft.intune.samples.taskr.utils.ExportJob;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Class with static accessors of the singleton design pattern that provides access to the app's
@@ -24,8 +44,37 @@ import java.util.List;
  * safely call other methods (other than closeRoom).
  */
 public final class RoomManager {
-    private static TaskDatabase database;
-    private static TaskDao taskDao;
+    private static final Logger LOGGER = Logger.getLogger(RoomManager.class.getName());
+
+    // The number of tasks loaded into a PagedList at once, and the most it will keep loaded
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_LOADED_TASKS = PAGE_SIZE * 10;
+    private static final PagedList.Config PAGED_CONFIG = new PagedList.Config.Builder()
+            .setPageSize(PAGE_SIZE)
+            .setPrefetchDistance(PAGE_SIZE)
+            .setMaxSize(MAX_LOADED_TASKS)
+            .setEnablePlaceholders(false)
+            .build();
+
+    private static final LatencyHistogram EXPORT_LATENCY = MetricsRegistry.histogram("export.duration");
+    private static final Counter EXPORT_ROWS = MetricsRegistry.counter("export.rows");
+    private static final Counter EXPORT_BYTES = MetricsRegistry.counter("export.bytes");
+    private static final Counter EXPORT_CANCELLED = MetricsRegistry.counter("export.cancelled");
+    private static final LatencyHistogram CLEAR_LATENCY = MetricsRegistry.histogram("db.clear_all");
+    private static final AtomicLong LAST_EXPORT_BYTES_PER_SEC = new AtomicLong();
+
+    // How many accounts' databases are kept open at once
+    private static final int MAX_OPEN_DATABASES = 3;
+
+    // The database in use, on which a lease is held until another replaces it
+    private static volatile TaskDatabasePool.Entry current;
+    private static volatile TaskDatabase database;
+    private static volatile TaskDao taskDao;
+    private static volatile TaskWriteQueue writeQueue;
+    private static DatabaseExecutors executors;
+    private static TaskDatabasePool pool;
+    // Counts calls to switchAccount, so that only the latest one takes effect
+    private static long switches;
 
     /**
      * Empty private constructor prevents an instance of RoomManager from ever being created.
@@ -40,18 +89,182 @@ public final class RoomManager {
      *                is active
      */
     public static void initRoom(final Context context) {
-        /* In a production app, falling back to a destructive migration would be inadvisable,
-         * but for this demo it is an acceptable danger */
-        database = Room.databaseBuilder(context, TaskDatabase.class, "tasks-db")
-                .fallbackToDestructiveMigration().build();
+        initRoom(context, new DatabaseExecutors());
+    }
+
+    /**
+     * Initializes the app's connection to the database, running its work on dbExecutors.
+     * Each account has its own database. The signed in account's is opened in the background
+     * once the settings have been loaded, with the database used while nobody is signed in in
+     * use until then, so this never waits for the settings. The database in use follows the
+     * account saved in AppSettings from then on.
+     *
+     * @param context     the context of the app - tells the Room to stay open only as long at
+     *                    context is active
+     * @param dbExecutors the executors database reads and writes will run on
+     */
+    public static void initRoom(final Context context, @NonNull final DatabaseExecutors dbExecutors) {
+        executors = dbExecutors;
+        pool = new TaskDatabasePool(context.getApplicationContext(), executors, MAX_OPEN_DATABASES);
+
+        switchAccount(null);
+        registerGauges();
+
+        final Context appContext = context.getApplicationContext();
+        AppSettings.whenAccountLoaded(appContext).thenAcceptAsync(loaded -> {
+            pool.recordLegacyOwner(loaded == null ? null : loaded.getAADID());
+            // A sign in may have replaced the loaded account already
+            AppAccount account = AppSettings.getAccount(appContext);
+            if (account != null) {
+                switchAccount(account.getAADID());
+            }
+        }).exceptionally(e -> {
+            LOGGER.log(Level.SEVERE, "Failed to record the task database's owner", e);
+            return null;
+        });
+        // Keep the last user's database in use after they sign out, until someone else signs in
+        AppSettings.addListener(appContext, newAccount -> {
+            if (newAccount != null) {
+                switchAccount(newAccount.getAADID());
+            }
+        });
+    }
+
+    /**
+     * Makes an account's database the one every other method uses, once it has been opened.
+     * Opening it runs on the writer thread, so this never waits for the disk. Until it is open,
+     * the previous database stays in use. If switchAccount is called again meanwhile, the
+     * latest call wins. Writes still queued for the previous account's database are written to
+     * it first.
+     *
+     * LiveData returned before the switch keeps showing the previous account's tasks, so
+     * screens showing tasks should be recreated after switching.
+     *
+     * @param aadId the AAD ID of the account, or null for the database used while nobody is
+     *              signed in, which is switched to at once
+     * @return a future completed once the database is in use, or completed exceptionally if it
+     * could not be opened
+     */
+    public static CompletableFuture<Void> switchAccount(@Nullable final String aadId) {
+        final long request;
+        synchronized (RoomManager.class) {
+            request = ++switches;
+        }
+        return pool.acquire(aadId).thenAccept(entry -> use(entry, request)).whenComplete((ignored, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.SEVERE, "Failed to open the task database for " + aadId, e);
+            }
+        });
+    }
+
+    private static synchronized void use(@NonNull final TaskDatabasePool.Entry entry, final long request) {
+        TaskDatabasePool.Entry previous = current;
+        if (request != switches || entry == previous) {
+            // Only the lease taken out by the switch has to be given up
+            pool.release(entry);
+            return;
+        }
+        database = entry.mDatabase;
         taskDao = database.taskDao();
+        writeQueue = entry.mWriteQueue;
+        current = entry;
+        LOGGER.info("Using task database " + entry.mName);
+        if (previous != null) {
+            previous.mWriteQueue.flush();
+            pool.release(previous);
+        }
+    }
+
+    /**
+     * Deletes an account's database, for example when the account is unenrolled from MAM.
+     * Other accounts' databases are left alone. If the account's database is in use, the
+     * database used while nobody is signed in replaces it.
+     *
+     * @param aadId the AAD ID of the account
+     * @return a future completed once the database has been deleted, or completed exceptionally
+     * if its file is still there
+     */
+    public static synchronized CompletableFuture<Void> deleteAccountData(@NonNull final String aadId) {
+        if (current != null && current.mName.equals(TaskDatabasePool.nameFor(aadId))) {
+            switchAccount(null);
+        }
+        return pool.delete(aadId);
+    }
+
+    /**
+     * Removes every Task belonging to an account, then deletes its database. If the account's
+     * database is in use, its Tasks are deleted a chunk at a time first, so screens showing them
+     * empty out smoothly and the writer is never held for long.
+     *
+     * @param aadId the AAD ID of the account
+     * @return a future completed with the number of Tasks deleted from the database in use once
+     * the account's database has been deleted too, or completed exceptionally if either failed
+     */
+    public static CompletableFuture<Integer> wipeAccount(@NonNull final String aadId) {
+        final TaskDatabasePool.Entry entry = current;
+        if (entry == null || !entry.mName.equals(TaskDatabasePool.nameFor(aadId))) {
+            return deleteAccountData(aadId).thenApply(ignored -> 0);
+        }
+        return TaskDeleter.deleteAll(entry.mDatabase, executors.writer(), TaskDeleter.DEFAULT_CHUNK_SIZE)
+                .thenCompose(deleted -> deleteAccountData(aadId).thenApply(ignored -> deleted));
+    }
+
+    private static void registerGauges() {
+        final DatabaseExecutors.MeteredExecutor writer = executors.writer();
+        final DatabaseExecutors.MeteredExecutor readers = executors.readers();
+        final DatabaseExecutors.MeteredExecutor queries = executors.queries();
+        MetricsRegistry.gauge("db.write_queue.pending", () -> writeQueue.getPendingCount());
+        MetricsRegistry.gauge("db.writer.queue_depth", writer::getQueueDepth);
+        MetricsRegistry.gauge("db.writer.max_queue_depth", writer::getMaxQueueDepth);
+        MetricsRegistry.gauge("db.writer.avg_wait_ms", () -> Math.round(writer.getAverageWaitMillis()));
+        MetricsRegistry.gauge("db.readers.queue_depth", readers::getQueueDepth);
+        MetricsRegistry.gauge("db.readers.max_queue_depth", readers::getMaxQueueDepth);
+        MetricsRegistry.gauge("db.readers.avg_wait_ms", () -> Math.round(readers.getAverageWaitMillis()));
+        MetricsRegistry.gauge("db.queries.queue_depth", queries::getQueueDepth);
+        MetricsRegistry.gauge("db.queries.max_queue_depth", queries::getMaxQueueDepth);
+        MetricsRegistry.gauge("db.queries.avg_wait_ms", () -> Math.round(queries.getAverageWaitMillis()));
+        MetricsRegistry.gauge("export.last_bytes_per_sec", LAST_EXPORT_BYTES_PER_SEC::get);
     }
 
     /**
      * Closes the app's connection to the database. SHOULD ONLY BE CALLED IN TaskrApplication.
      */
     public static void closeRoom() {
-        database.close();
+        pool.closeAll();
+        executors.shutdown();
+    }
+
+    /**
+     * Gets the executors the database's work runs on, so their queues can be monitored.
+     *
+     * @return the database executors
+     */
+    public static DatabaseExecutors getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Gets the DAO for the app's tasks. Must only be used off the main thread. Work that runs for
+     * longer than a single query should use {@link #leaseDatabase()} instead, so the database
+     * stays open until it is done.
+     *
+     * @return the task DAO
+     */
+    public static TaskDao getTaskDao() {
+        return taskDao;
+    }
+
+    /**
+     * Keeps the database in use open until the returned lease is released, even if another
+     * account's database replaces it meanwhile.
+     *
+     * @return a lease on the database in use, or null if it has just been closed, which only
+     * happens while it is handed over to the signed in account
+     */
+    @Nullable
+    public static DatabaseLease leaseDatabase() {
+        final TaskDatabasePool.Entry entry = current;
+        return pool.lease(entry) ? new DatabaseLease(pool, entry) : null;
     }
 
     /**
@@ -60,54 +273,195 @@ public final class RoomManager {
      * @return a LiveData containing a List with all of the table's Tasks
      */
     public static LiveData<List<Task>> getAllTasks() {
-        return taskDao.getAll();
+        final TaskDatabasePool.Entry entry = current;
+        return new LeasedLiveData<>(pool, entry, entry.mDatabase.taskDao().getAll());
+    }
+
+    /**
+     * Returns the database's Tasks as a PagedList that loads more of them as they are needed.
+     * Only a bounded window of Tasks is held in memory, no matter how large the table is.
+     *
+     * @return a LiveData containing a PagedList of the table's Tasks, replaced whenever the table
+     * changes
+     */
+    public static LiveData<PagedList<Task>> getPagedTasks() {
+        final TaskDatabasePool.Entry entry = current;
+        return new LeasedLiveData<>(pool, entry,
+                new LivePagedListBuilder<>(new TaskKeyedDataSource.Factory(entry.mDatabase), PAGED_CONFIG)
+                        .setFetchExecutor(executors.queries())
+                        .build());
+    }
+
+    /**
+     * Searches the descriptions of the database's Tasks using its full-text index. Matches are
+     * ranked by how well they match, then loaded a page at a time, see
+     * {@link TaskSearchDataSource}. Callers should wait for a pause in typing before searching.
+     *
+     * @param text the words to search for, as typed by the user
+     * @return a LiveData containing a PagedList of at most
+     * {@link TaskSearchDataSource#MAX_SEARCH_RESULTS} matching Tasks, best matches first, which
+     * is empty if text has no words in it
+     */
+    public static LiveData<PagedList<Task>> searchTasks(@NonNull final String text) {
+        final TaskDatabasePool.Entry entry = current;
+        TaskSearchDataSource.Factory factory =
+                new TaskSearchDataSource.Factory(entry.mDatabase, TaskFts.toMatchQuery(text));
+        return new LeasedLiveData<>(pool, entry, new LivePagedListBuilder<>(factory, PAGED_CONFIG)
+                .setFetchExecutor(executors.queries())
+                .build());
     }
 
     /**
-     * Inserts task into the database. Then sets its id to be the result of that
-     * insertion, in case it did not already have an id.
+     * Queues task to be inserted into the database. Then sets its id to be the result of that
+     * insertion, in case it did not already have an id. Writes are batched, see TaskWriteQueue.
      *
      * @param task the task to insert into the database
+     * @return a future completed with the id of task once it has been written
      */
-    public static void insertTask(final Task task) {
-        AsyncTask.execute(() -> {
-            long id = taskDao.insert(task);
-            task.setId(id);
-        });
+    public static CompletableFuture<Long> insertTask(final Task task) {
+        return writeQueue.insert(task);
     }
 
     /**
-     * Takes in an Task and removes the task from the table.
+     * Takes in an Task and queues the task to be marked as completed, which removes it from the
+     * list. It is moved to the archive later, by {@link #compact(BooleanSupplier)}.
      *
      * @param task the Task to complete
+     * @return a future completed once task has been marked as completed
      */
-    public static void completeTask(final Task task) {
-        AsyncTask.execute(() -> taskDao.delete(task));
+    public static CompletableFuture<Void> completeTask(final Task task) {
+        return writeQueue.complete(task);
+    }
+
+    /**
+     * Archives old completed tasks and gives the space they used back, in the database in use.
+     * Runs on the calling thread, handing each step to the writer thread in turn; meant to be
+     * called from a background job while the device is idle.
+     *
+     * @param stopped returns true once the work should stop early
+     * @return the number of tasks archived
+     */
+    @WorkerThread
+    public static int compact(@NonNull final BooleanSupplier stopped) {
+        final DatabaseLease lease = leaseDatabase();
+        if (lease == null) {
+            return 0;
+        }
+        try {
+            return new TaskCompactor(lease.getDatabase(), executors.writer()).compact(stopped);
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Writes any queued inserts and completions now, rather than waiting for their batch to fill up.
+     * Called when the app goes to the background, so that queued writes are not lost.
+     */
+    public static void flushWrites() {
+        pool.flushAll();
     }
 
     /**
      * Deletes the entire database.
+     *
+     * @return a future completed once the tables have been cleared, or completed exceptionally
+     * if they could not be
      */
-    public static void deleteAll() {
-        AsyncTask.execute(() -> database.clearAllTables());
+    public static CompletableFuture<Void> deleteAll() {
+        // Flush first so that queued writes can't land after the tables have been cleared
+        writeQueue.flush();
+        final TaskDatabase target = database;
+        try {
+            return CompletableFuture.runAsync(() -> {
+                long start = CLEAR_LATENCY.start();
+                target.clearAllTables();
+                CLEAR_LATENCY.stop(start);
+            }, executors.writer());
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Could not clear the database", e);
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
     }
 
     /**
-     * Calls observer on a String containing all the tasks in the database,
-     * formatted as a CSV or HTML document.
+     * Streams all the tasks in the database into file, formatted as a CSV or HTML document, then
+     * calls observer with the file. Tasks are read and written a page at a time on the database's
+     * reader pool, so memory use stays the same no matter how many tasks there are and the main
+     * thread is never blocked.
      *
      * @param context  the context of the calling activity, so this method can access resource strings
-     * @param lifespan a LifecycleOwner specifying how long the activity should run for
+     * @param lifespan the export is cancelled, and observer never called, if lifespan is destroyed
      * @param isCsv    true for a CSV, false for HTML
-     * @param observer is called when the results of the method are available
-     */
-    public static void getTaskDocument(@Nullable final Context context,
-                                       @NonNull final LifecycleOwner lifespan,
-                                       final boolean isCsv,
-                                       final Observer<String> observer) {
-        final String colSeparator = ",";
-        final String lineSeparator = "\n";
-        String header, headerCol1, headerCol2;
+     * @param file     the file to write the document to, overwritten if it exists
+     * @param listener notified on a background thread as pages are written, may be null
+     * @param observer is called on the main thread with file once it has been written, or with
+     *                 null if it could not be
+     * @return the running export, which can be cancelled
+     */
+    @MainThread
+    public static ExportJob<File> saveTaskDocument(@Nullable final Context context,
+                                                   @NonNull final LifecycleOwner lifespan,
+                                                   final boolean isCsv,
+                                                   @NonNull final File file,
+                                                   @Nullable final TaskDocumentExporter.ProgressListener listener,
+                                                   @NonNull final Observer<File> observer) {
+        // Resource strings are read in the background, which must not keep the activity alive
+        final Context appContext = context == null ? null : context.getApplicationContext();
+        // Wait for queued writes so the document includes every write made before it was requested
+        return ExportJob.start(lifespan, RoomManager::runAfterPendingWrites,
+                (CancellationSignal signal) -> {
+                    // Keep the database open while it is read, even if the account is switched
+                    final DatabaseLease lease = leaseDatabase();
+                    if (lease == null) {
+                        throw new IllegalStateException("The task database is being handed over");
+                    }
+                    final long start = EXPORT_LATENCY.start();
+                    try (OutputStream out = new FileOutputStream(file)) {
+                        int rows = createExporter(lease.getTaskDao(), appContext, isCsv)
+                                .export(out, listener, signal);
+                        EXPORT_ROWS.add(rows);
+                    } catch (OperationCanceledException e) {
+                        EXPORT_CANCELLED.increment();
+                        // Don't leave a partial document behind
+                        if (!file.delete()) {
+                            LOGGER.warning("Failed to delete partial export " + file.getPath());
+                        }
+                        throw e;
+                    } finally {
+                        lease.release();
+                    }
+                    recordExport(start, file.length());
+                    return file;
+                }, observer);
+    }
+
+    private static void recordExport(final long start, final long bytes) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        EXPORT_LATENCY.record(nanos);
+        EXPORT_BYTES.add(bytes);
+        if (nanos > 0) {
+            LAST_EXPORT_BYTES_PER_SEC.set(bytes * TimeUnit.SECONDS.toNanos(1) / nanos);
+        }
+    }
+
+    /**
+     * Creates an exporter that writes the tasks in a database as a CSV or HTML document.
+     *
+     * @param dao     the DAO of the database to export
+     * @param context the context used to access resource strings, may be null
+     * @param isCsv   true for a CSV, false for HTML
+     * @return an exporter for the database
+     */
+    private static TaskDocumentExporter createExporter(@NonNull final TaskDao dao,
+                                                       @Nullable final Context context,
+                                                       final boolean isCsv) {
+        String headerCol1, headerCol2;
         if (context == null) {
             headerCol1 = "ID";
             headerCol2 = "Task description";
@@ -115,63 +469,25 @@ public final class RoomManager {
             headerCol1 = context.getString(R.string.csv_header_col_1);
             headerCol2 = context.getString(R.string.csv_header_col_2);
         }
-        if (isCsv) {
-            // Entries in the CSV must be wrapped in quotes to be opened by Excel
-            header = "\"" + headerCol1 + "\"" + colSeparator + "\"" + headerCol2 + "\"";
-        } else {
-            header = headerCol1 + colSeparator + headerCol2;
-        }
-
-        /* Since database access can't be performed on the main thread, create a callback to
-         * access the data. But we only want this callback to be called once. So let the observer
-         * use the caller's LifeCycleOwner to instantiate itself, then remove itself after its
-         * first use. */
-        LiveData<List<Task>> liveTasks = getAllTasks();
-        liveTasks.observe(lifespan, (List<Task> tasks) -> {
-            if (tasks == null) {
-                observer.onChanged(null);
-                liveTasks.removeObservers(lifespan);
-                return;
-            }
-
-            // Now create the document
-            StringBuilder docBuilder = new StringBuilder();
-            if (isCsv) {
-                docBuilder.append(header);
-                for (Task task : tasks) {
-                    docBuilder.append(lineSeparator);
-                    docBuilder.append(task.toString(colSeparator));
-                }
-            } else { // the user is asking for an HTML document
-                // Create the document/table
-                docBuilder.append("<!DOCTYPE html><html><body><table>");
-                docBuilder.append(lineSeparator);
-                docBuilder.append("<tr><th>");
-                // Set the header
-                String[] headers = header.split(colSeparator);
-                docBuilder.append(headers[0]);
-                docBuilder.append("</th><th>");
-                docBuilder.append(headers[1]);
-                docBuilder.append("</th></tr>");
-                docBuilder.append(lineSeparator);
-
-                // Add rows to the table
-                for (Task task : tasks) {
-                    docBuilder.append("<tr><td>");
-                    docBuilder.append(task.getId());
-                    docBuilder.append("</td><td>");
-                    docBuilder.append(task.getDescription());
-                    docBuilder.append("</td></tr>");
-                    docBuilder.append(lineSeparator);
-                }
-
-                // End the document/table
-                docBuilder.append(lineSeparator);
-                docBuilder.append("</table></body></html>");
-            }
+        TaskRowEncoder encoder = isCsv ? new CsvTaskRowEncoder() : new HtmlTaskRowEncoder();
+        return new TaskDocumentExporter(dao, encoder, headerCol1, headerCol2);
+    }
 
-            observer.onChanged(docBuilder.toString());
-            liveTasks.removeObservers(lifespan);
-        });
+    /**
+     * Runs read on the reader pool once every write queued so far has been committed. An empty
+     * marker task is queued on the writer, and read is handed to the reader pool when it
+     * completes, so no thread is tied up waiting for the writes and read never runs on the writer.
+     *
+     * @throws RejectedExecutionException if the writer has been shut down
+     */
+    private static void runAfterPendingWrites(@NonNull final Runnable read) {
+        writeQueue.flush();
+        CompletableFuture.runAsync(() -> { }, executors.writer())
+                .thenRunAsync(read, executors.readers())
+                .exceptionally(e -> {
+                    // The reader pool has been shut down as the app stops
+                    LOGGER.log(Level.SEVERE, "Could not run read after pending writes", e);
+                    return null;
+                });
     }
 }
@@ -5,23 +5,46 @@
 
 package com.microsoft.intune.samples.taskr.room;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import java.util.Objects;
 
 /**
  * Java representation of a task. Standard object with privates with getters and setters.
+ *
+ * Tasks created before timestamps were recorded have a created and updated time of 0.
+ * The (mCompleted, mId) index lets keyset pages over open tasks be found and ordered by the
+ * index, without a sort.
  */
-@Entity
+@Entity(indices = {
+        @Index(value = {"mCompleted", "mId"})
+})
 public class Task {
     @PrimaryKey(autoGenerate = true)
     private long mId;
 
     private final String mDescription;
 
+    // Defaults match the ones the v2 to v3 migration gives existing rows
+    @ColumnInfo(defaultValue = "0")
+    private long mCreatedAt;
+
+    @ColumnInfo(defaultValue = "0")
+    private long mUpdatedAt;
+
+    @ColumnInfo(defaultValue = "0")
+    private boolean mCompleted;
+
+    @ColumnInfo(defaultValue = "0")
+    private int mPriority;
+
     public Task(final String description) {
         this.mDescription = description;
+        this.mCreatedAt = System.currentTimeMillis();
+        this.mUpdatedAt = this.mCreatedAt;
     }
 
     /**
@@ -48,18 +71,84 @@ public class Task {
         return this.mDescription;
     }
 
+    /**
+     * Sets when the task was created.
+     * @param createdAt the time, in milliseconds since the epoch
+     */
+    public void setCreatedAt(final long createdAt) {
+        this.mCreatedAt = createdAt;
+    }
+
+    /**
+     * Gets when the task was created.
+     * @return the time, in milliseconds since the epoch, or 0 if it is not known
+     */
+    public long getCreatedAt() {
+        return this.mCreatedAt;
+    }
+
+    /**
+     * Sets when the task was last changed.
+     * @param updatedAt the time, in milliseconds since the epoch
+     */
+    public void setUpdatedAt(final long updatedAt) {
+        this.mUpdatedAt = updatedAt;
+    }
+
+    /**
+     * Gets when the task was last changed.
+     * @return the time, in milliseconds since the epoch, or 0 if it is not known
+     */
+    public long getUpdatedAt() {
+        return this.mUpdatedAt;
+    }
+
+    /**
+     * Sets whether the task has been completed.
+     * @param completed true if the task is done
+     */
+    public void setCompleted(final boolean completed) {
+        this.mCompleted = completed;
+    }
+
+    /**
+     * Gets whether the task has been completed.
+     * @return true if the task is done
+     */
+    public boolean isCompleted() {
+        return this.mCompleted;
+    }
+
+    /**
+     * Sets the priority of the task.
+     * @param priority the new priority; higher is more important, 0 is the default
+     */
+    public void setPriority(final int priority) {
+        this.mPriority = priority;
+    }
+
+    /**
+     * Gets the priority of the task.
+     * @return the task's priority; higher is more important, 0 is the default
+     */
+    public int getPriority() {
+        return this.mPriority;
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (obj == null || !(obj instanceof Task)) {
             return false;
         }
         Task task = (Task) obj;
-        return mId == task.getId() && mDescription.equals(task.getDescription());
+        return mId == task.getId() && mDescription.equals(task.getDescription())
+                && mCreatedAt == task.getCreatedAt() && mUpdatedAt == task.getUpdatedAt()
+                && mCompleted == task.isCompleted() && mPriority == task.getPriority();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mId, mDescription);
+        return Objects.hash(mId, mDescription, mCreatedAt, mUpdatedAt, mCompleted, mPriority);
     }
 
     /**
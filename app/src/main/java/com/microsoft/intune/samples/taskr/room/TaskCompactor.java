@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a task database small and its list queries fast, once completed tasks have built up.
+ *
+ * Tasks completed more than archiveAfterMs ago are moved to the archive table, batchSize at a
+ * time. The pages they used are then handed back to the file system with incremental vacuum,
+ * a few at a time, and SQLite is given the chance to refresh its query planner statistics. Every
+ * step is a short piece of work queued on the writer, so the app's own writes go in between,
+ * and the work stops early between any two steps once it is asked to.
+ */
+public final class TaskCompactor {
+    private static final Logger LOGGER = Logger.getLogger(TaskCompactor.class.getName());
+
+    /**
+     * How long completed tasks stay in the task table before they are archived.
+     */
+    public static final long ARCHIVE_AFTER_MS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * The default number of tasks archived per transaction.
+     */
+    public static final int BATCH_SIZE = 500;
+
+    // The most free pages given back per step; 256 pages is 1MB with the default page size
+    static final int VACUUM_PAGES_PER_STEP = 256;
+    // The value of PRAGMA auto_vacuum once incremental vacuum is enabled
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    /* The share of a database's pages which must be free before an older database, created
+     * without incremental vacuum, is rewritten with a full VACUUM to enable it */
+    static final double FULL_VACUUM_FREE_RATIO = 0.25;
+
+    private static final LatencyHistogram COMPACT_LATENCY = MetricsRegistry.histogram("db.compact");
+    private static final Counter ARCHIVED = MetricsRegistry.counter("db.compact.archived");
+    private static final Counter PAGES_FREED = MetricsRegistry.counter("db.compact.pages_freed");
+
+    private final TaskDatabase mDatabase;
+    private final Executor mWriter;
+    private final long mArchiveAfterMs;
+    private final int mBatchSize;
+
+    /**
+     * @param database the database to compact
+     * @param writer   the executor database writes run on
+     */
+    public TaskCompactor(@NonNull final TaskDatabase database, @NonNull final Executor writer) {
+        this(database, writer, ARCHIVE_AFTER_MS, BATCH_SIZE);
+    }
+
+    /**
+     * @param database       the database to compact
+     * @param writer         the executor database writes run on
+     * @param archiveAfterMs how long completed tasks stay in the task table
+     * @param batchSize      the most tasks archived per transaction
+     */
+    public TaskCompactor(@NonNull final TaskDatabase database, @NonNull final Executor writer,
+                         final long archiveAfterMs, final int batchSize) {
+        mDatabase = database;
+        mWriter = writer;
+        mArchiveAfterMs = archiveAfterMs;
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Archives old completed tasks, then frees the space they used. Waits for each step on the
+     * writer in turn, so must not be called on the writer itself.
+     *
+     * @param stopped returns true once the work should stop early
+     * @return the number of tasks archived
+     */
+    @WorkerThread
+    public int compact(@NonNull final BooleanSupplier stopped) {
+        final long start = COMPACT_LATENCY.start();
+        final long before = System.currentTimeMillis() - mArchiveAfterMs;
+
+        int archived = 0;
+        while (!stopped.getAsBoolean()) {
+            int moved = onWriter(() -> archiveBatch(before));
+            archived += moved;
+            if (moved < mBatchSize) {
+                break;
+            }
+        }
+        ARCHIVED.add(archived);
+
+        boolean incremental = !stopped.getAsBoolean() && onWriter(this::enableIncrementalVacuum) != 0;
+        int freed = 0;
+        while (incremental && !stopped.getAsBoolean()) {
+            int pages = onWriter(this::vacuumStep);
+            freed += pages;
+            if (pages == 0) {
+                break;
+            }
+        }
+        PAGES_FREED.add(freed);
+
+        if (!stopped.getAsBoolean()) {
+            onWriter(this::optimize);
+        }
+        COMPACT_LATENCY.stop(start);
+        LOGGER.info("Archived " + archived + " tasks and freed " + freed + " pages"
+                + (stopped.getAsBoolean() ? ", then stopped early" : ""));
+        return archived;
+    }
+
+    /**
+     * Moves up to a batch of tasks completed before before into the archive.
+     */
+    private int archiveBatch(final long before) {
+        final TaskDao dao = mDatabase.taskDao();
+        return mDatabase.runInTransaction(() -> {
+            List<Long> ids = dao.getCompletedBefore(before, mBatchSize);
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            dao.copyToArchive(ids);
+            return dao.deleteByIds(ids);
+        });
+    }
+
+    /**
+     * Incremental vacuum only works once auto_vacuum is INCREMENTAL. New databases are created
+     * that way, see {@link IncrementalVacuumOpenHelperFactory}. For a database created before,
+     * changing it takes a full VACUUM, which rewrites the whole file on the writer; that is only
+     * done once at least FULL_VACUUM_FREE_RATIO of its pages are free, and then never again.
+     *
+     * @return 1 if incremental vacuum is enabled, 0 if not
+     */
+    private int enableIncrementalVacuum() {
+        SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+        if (queryInt(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            return 1;
+        }
+        int free = queryInt(db, "PRAGMA freelist_count");
+        int total = queryInt(db, "PRAGMA page_count");
+        if (total == 0 || free < total * FULL_VACUUM_FREE_RATIO) {
+            return 0;
+        }
+        LOGGER.info("Running a one-off full VACUUM to enable incremental vacuum, " + free
+                + " of " + total + " pages are free");
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        return 1;
+    }
+
+    /**
+     * Gives up to VACUUM_PAGES_PER_STEP free pages back to the file system.
+     *
+     * @return the number of pages freed, 0 once there are none left
+     */
+    private int vacuumStep() {
+        SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+        int pages = Math.min(queryInt(db, "PRAGMA freelist_count"), VACUUM_PAGES_PER_STEP);
+        if (pages > 0) {
+            // The pragma frees a page for every row it steps through
+            try (Cursor cursor = db.query("PRAGMA incremental_vacuum(" + pages + ")")) {
+                while (cursor.moveToNext()) {
+                    // Keep stepping
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Refreshes the query planner's statistics where SQLite thinks it is worthwhile, and shrinks
+     * the write-ahead log, which is where the freed pages went.
+     */
+    private int optimize() {
+        SupportSQLiteDatabase db = mDatabase.getOpenHelper().getWritableDatabase();
+        try (Cursor cursor = db.query("PRAGMA optimize")) {
+            while (cursor.moveToNext()) {
+                // Keep stepping
+            }
+        }
+        try (Cursor cursor = db.query("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            cursor.moveToFirst();
+        }
+        return 0;
+    }
+
+    private static int queryInt(@NonNull final SupportSQLiteDatabase db, @NonNull final String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Runs step on the writer and waits for it. If the writer's queue is full, this waits for
+     * room in it; the writer only rejects the step once it has been shut down.
+     */
+    private int onWriter(@NonNull final Supplier<Integer> step) {
+        CompletableFuture<Integer> result = CompletableFuture.supplyAsync(step, mWriter);
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -25,22 +25,98 @@ public interface TaskDao {
     String TABLE = "task";
 
     /**
-     * Queries the database for all of its Tasks and returns them in a LiveData object.
+     * Finds the open Tasks whose descriptions match :matchQuery, with the matchinfo their rank is
+     * computed from. Only ids and matchinfo are read; the Tasks themselves are loaded a page at
+     * a time, once they have been ranked.
+     */
+    String SEARCH_QUERY = "SELECT " + TABLE + ".mId AS mId, matchinfo(" + TaskFts.TABLE + ", '"
+            + TaskMatch.MATCH_INFO_FORMAT + "') AS mMatchInfo FROM " + TABLE
+            + " JOIN " + TaskFts.TABLE + " ON " + TABLE + ".mId = " + TaskFts.TABLE + ".rowid"
+            + " WHERE " + TaskFts.TABLE + " MATCH :matchQuery AND " + TABLE + ".mCompleted = 0";
+
+    /**
+     * Queries the database for all of its open Tasks and returns them in a LiveData object.
      *
-     * @return a LiveData containing a List with all of the table's Tasks
+     * @return a LiveData containing a List with all of the table's open Tasks
      */
-    @Query("SELECT * FROM " + TABLE)
+    @Query("SELECT * FROM " + TABLE + " WHERE mCompleted = 0")
     LiveData<List<Task>> getAll();
 
     /**
-     * Queries the database for all of its Tasks and returns them in a List, synchronously.
-     * Should never be used in the UI, only in tests.
+     * Queries the database for all of its Tasks, completed or not, and returns them in a List,
+     * synchronously. Should never be used in the UI, only in tests.
      *
      * @return a List containing all of the table's Tasks
      */
     @Query("SELECT * FROM " + TABLE)
     List<Task> getAllSync();
 
+    /**
+     * Queries the database for the open Tasks that come after afterId, in id order. Used to walk
+     * the table in fixed-size pages without ever holding more than limit rows in memory.
+     * Found and ordered by the (mCompleted, mId) index, so completed Tasks waiting to be
+     * archived are never read.
+     *
+     * @param afterId the id of the last Task of the previous page, or 0 for the first page
+     * @param limit   the maximum number of Tasks to return
+     * @return a List containing at most limit open Tasks, all with an id greater than afterId
+     */
+    @Query("SELECT * FROM " + TABLE + " WHERE mCompleted = 0 AND mId > :afterId"
+            + " ORDER BY mId LIMIT :limit")
+    List<Task> getPageAfter(long afterId, int limit);
+
+    /**
+     * Queries the database for the open Tasks that come before beforeId, nearest first. Used to
+     * page backwards through the table.
+     *
+     * @param beforeId the id of the first Task of the following page
+     * @param limit    the maximum number of Tasks to return
+     * @return a List containing at most limit open Tasks, all with an id less than beforeId, in
+     * descending id order
+     */
+    @Query("SELECT * FROM " + TABLE + " WHERE mCompleted = 0 AND mId < :beforeId"
+            + " ORDER BY mId DESC LIMIT :limit")
+    List<Task> getPageBefore(long beforeId, int limit);
+
+    /**
+     * Queries the database for the id of the open Task at position offset, in id order. Lets a
+     * page in the middle of the table be found without reading the pages before it, and is
+     * answered from the (mCompleted, mId) index alone.
+     *
+     * @param offset the position of the Task, starting from 0
+     * @return the id of the Task at offset, or null if there are not that many open Tasks
+     */
+    @Query("SELECT mId FROM " + TABLE + " WHERE mCompleted = 0 ORDER BY mId LIMIT 1 OFFSET :offset")
+    @Nullable
+    Long getIdAt(int offset);
+
+    /**
+     * Searches the descriptions of the open Tasks, for ranking by {@link TaskMatch#getScore()}.
+     *
+     * @param matchQuery an FTS MATCH expression, see {@link TaskFts#toMatchQuery(String)}
+     * @param limit      the maximum number of matches to return
+     * @return a List containing at most limit matches, in no particular order
+     */
+    @Query(SEARCH_QUERY + " LIMIT :limit")
+    List<TaskMatch> searchMatches(String matchQuery, int limit);
+
+    /**
+     * Queries the database for the open Tasks with the given ids.
+     *
+     * @param ids the ids of the Tasks
+     * @return a List containing the open Tasks among ids, in no particular order
+     */
+    @Query("SELECT * FROM " + TABLE + " WHERE mId IN (:ids) AND mCompleted = 0")
+    List<Task> getOpenByIds(List<Long> ids);
+
+    /**
+     * Counts the open Tasks in the database.
+     *
+     * @return the number of Tasks which have not been completed
+     */
+    @Query("SELECT COUNT(*) FROM " + TABLE + " WHERE mCompleted = 0")
+    int count();
+
     /**
      * Queries the database for a Task with id id.
      *
@@ -70,6 +146,58 @@ public interface TaskDao {
     @Insert
     long[] insertAll(Task... tasks);
 
+    /**
+     * Marks Tasks as completed. They stay in the table, hidden from the list, until
+     * {@link TaskCompactor} archives them.
+     *
+     * @param ids       the ids of the Tasks
+     * @param updatedAt when they were completed, in milliseconds since the epoch
+     * @return the number of Tasks changed
+     */
+    @Query("UPDATE " + TABLE + " SET mCompleted = 1, mUpdatedAt = :updatedAt WHERE mId IN (:ids)")
+    int completeAll(List<Long> ids, long updatedAt);
+
+    /**
+     * Queries the database for the ids of Tasks which were completed before a point in time,
+     * in id order.
+     *
+     * @param before the time, in milliseconds since the epoch
+     * @param limit  the maximum number of ids to return
+     * @return at most limit ids of Tasks completed before before
+     */
+    @Query("SELECT mId FROM " + TABLE + " WHERE mCompleted = 1 AND mUpdatedAt < :before"
+            + " ORDER BY mId LIMIT :limit")
+    List<Long> getCompletedBefore(long before, int limit);
+
+    /**
+     * Copies completed Tasks into the archive. Should be followed by
+     * {@link #deleteByIds(List)} in the same transaction.
+     *
+     * @param ids the ids of the Tasks to copy
+     */
+    @Query("INSERT OR REPLACE INTO " + ArchivedTask.TABLE
+            + " (mId, mDescription, mCreatedAt, mCompletedAt, mPriority)"
+            + " SELECT mId, mDescription, mCreatedAt, mUpdatedAt, mPriority FROM " + TABLE
+            + " WHERE mId IN (:ids) AND mCompleted = 1")
+    void copyToArchive(List<Long> ids);
+
+    /**
+     * Deletes Tasks by id.
+     *
+     * @param ids the ids of the Tasks to delete
+     * @return the number of Tasks deleted
+     */
+    @Query("DELETE FROM " + TABLE + " WHERE mId IN (:ids)")
+    int deleteByIds(List<Long> ids);
+
+    /**
+     * Counts the Tasks in the archive.
+     *
+     * @return the number of archived Tasks
+     */
+    @Query("SELECT COUNT(*) FROM " + ArchivedTask.TABLE)
+    int countArchived();
+
     /**
      * Deletes all of the Tasks passed in from the database.
      *
@@ -77,4 +205,15 @@ public interface TaskDao {
      */
     @Delete
     void delete(Task... task);
+
+    /**
+     * Deletes up to limit Tasks, oldest first. Used to empty the table a bounded chunk at a
+     * time, rather than in one long transaction.
+     *
+     * @param limit the most Tasks to delete
+     * @return the number of Tasks deleted, which is less than limit once the table is empty
+     */
+    @Query("DELETE FROM " + TABLE + " WHERE mId IN (SELECT mId FROM " + TABLE
+            + " ORDER BY mId LIMIT :limit)")
+    int deleteChunk(int limit);
 }
@@ -5,14 +5,69 @@
 
 package com.microsoft.intune.samples.taskr.room;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 /**
  * Contains the DAOs that provide access to the app's database.
+ *
+ * Every schema change comes with a Migration in MIGRATIONS, and the schema of every version is
+ * exported to app/schemas so that the migrations can be tested against it.
  */
-@Database(entities = {Task.class}, version = 1, exportSchema = false)
+@Database(entities = {Task.class, TaskFts.class, ArchivedTask.class}, version = 4, exportSchema = true)
 public abstract class TaskDatabase extends RoomDatabase {
+    /**
+     * Adds the full-text index over task descriptions and fills it from the existing tasks.
+     * Room recreates the triggers that keep the index in sync after every migration.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + TaskFts.TABLE
+                    + "` USING FTS4(`mDescription` TEXT, content=`Task`)");
+            db.execSQL("INSERT INTO `" + TaskFts.TABLE + "`(`" + TaskFts.TABLE
+                    + "`) VALUES ('rebuild')");
+        }
+    };
+
+    /**
+     * Adds created and updated times, a completed flag and a priority to tasks, and the index
+     * over open tasks. SQLite adds columns with a constant default without rewriting any rows, so
+     * only building the index takes time on a large database.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase db) {
+            for (String column : new String[]{"mCreatedAt", "mUpdatedAt", "mCompleted", "mPriority"}) {
+                db.execSQL("ALTER TABLE `Task` ADD COLUMN `" + column
+                        + "` INTEGER NOT NULL DEFAULT 0");
+            }
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_mCompleted_mId`"
+                    + " ON `Task` (`mCompleted`, `mId`)");
+        }
+    };
+
+    /**
+     * Adds the archive that TaskCompactor moves old completed tasks into.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `" + ArchivedTask.TABLE + "` ("
+                    + "`mId` INTEGER NOT NULL, `mDescription` TEXT, `mCreatedAt` INTEGER NOT NULL,"
+                    + " `mCompletedAt` INTEGER NOT NULL, `mPriority` INTEGER NOT NULL,"
+                    + " PRIMARY KEY(`mId`))");
+        }
+    };
+
+    /**
+     * Every migration, in order, from the first version of the database to the current one.
+     */
+    public static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4};
+
     /**
      * Returns the DAO that provides access to the database table containing tasks.
      *
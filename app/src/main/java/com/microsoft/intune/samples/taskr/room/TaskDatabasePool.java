@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps one task database per account, so users who share a device each have their own tasks.
+ * Databases are opened the first time their account is used, and at most maxOpen of them are
+ * kept open; the least recently used one is closed when another needs to be opened.
+ *
+ * Whoever uses a database holds a lease on it, from {@link #acquire(String)} or
+ * {@link #lease(Entry)}, until they {@link #release(Entry)} it. A leased database is never
+ * closed to make room for another, so more than maxOpen may be open while they are all in use.
+ * Only deleting a database, or handing the database of older versions over, closes it regardless.
+ *
+ * Accounts' databases are opened, and the database of older versions handed over, on the writer
+ * thread, so the thread asking for a database never waits for the disk or for queued writes.
+ */
+final class TaskDatabasePool {
+    private static final Logger LOGGER = Logger.getLogger(TaskDatabasePool.class.getName());
+
+    // Used when no account is signed in, and the name of the single database of older versions
+    static final String DEFAULT_NAME = "tasks-db";
+    // The main file comes last, so the database is whole where it was until it has been moved
+    private static final String[] FILE_SUFFIXES = {"-wal", "-shm", "-journal", ""};
+    /* Written once, by the first version with a database per account. Holds the AAD ID of the
+     * account the older single database belongs to, until that account adopts it; empty if no
+     * account is to adopt it. */
+    private static final String LEGACY_OWNER_FILE = "tasks-db.owner";
+
+    private static final LatencyHistogram OPEN_LATENCY = MetricsRegistry.histogram("db.open");
+
+    /**
+     * An open database and the write queue in front of it.
+     */
+    static final class Entry {
+        final String mName;
+        final TaskDatabase mDatabase;
+        final TaskWriteQueue mWriteQueue;
+        // Both guarded by the pool
+        private int mLeases;
+        private boolean mClosed;
+
+        Entry(@NonNull final String name, @NonNull final TaskDatabase database,
+              @NonNull final TaskWriteQueue writeQueue) {
+            mName = name;
+            mDatabase = database;
+            mWriteQueue = writeQueue;
+        }
+    }
+
+    private final Context mContext;
+    private final DatabaseExecutors mExecutors;
+    private final int mMaxOpen;
+    // In access order, so the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> mOpen = new LinkedHashMap<>(8, 0.75f, true);
+    // Databases being opened on the writer
+    private final Map<String, CompletableFuture<Entry>> mOpening = new HashMap<>();
+
+    /**
+     * @param context   the application context
+     * @param executors the executors every database's reads and writes run on
+     * @param maxOpen   the most databases kept open at once
+     */
+    TaskDatabasePool(@NonNull final Context context, @NonNull final DatabaseExecutors executors,
+                     final int maxOpen) {
+        mContext = context;
+        mExecutors = executors;
+        mMaxOpen = Math.max(1, maxOpen);
+    }
+
+    /**
+     * Gets the database for an account, opening it if it is not open already. The database used
+     * while nobody is signed in is ready at once. An account's database is opened on the writer,
+     * after any writes queued so far, taking over the database of older versions if it is
+     * the account's to take.
+     *
+     * @param aadId the account's AAD ID, or null for the database used while nobody is signed in
+     * @return a future completed with the account's database, leased to the caller, once it is
+     * open, or completed exceptionally if it could not be opened
+     */
+    @NonNull
+    synchronized CompletableFuture<Entry> acquire(@Nullable final String aadId) {
+        final String name = nameFor(aadId);
+        Entry entry = mOpen.get(name);
+        if (entry != null) {
+            entry.mLeases++;
+            return CompletableFuture.completedFuture(entry);
+        }
+        if (aadId == null) {
+            // Nothing is ever moved into the default database, so there is no need to wait
+            entry = open(name);
+            entry.mLeases++;
+            added(entry);
+            return CompletableFuture.completedFuture(entry);
+        }
+
+        CompletableFuture<Entry> opening = mOpening.get(name);
+        if (opening == null) {
+            opening = openOnWriter(aadId, name);
+        }
+        return opening.thenApply(opened -> {
+            if (!lease(opened)) {
+                throw new IllegalStateException(name + " was closed as soon as it was opened");
+            }
+            return opened;
+        });
+    }
+
+    /**
+     * Opens an account's database on the writer. Called with the pool locked.
+     */
+    @NonNull
+    private CompletableFuture<Entry> openOnWriter(@NonNull final String aadId, @NonNull final String name) {
+        final CompletableFuture<Entry> opened = new CompletableFuture<>();
+        final Entry defaultEntry = mOpen.get(DEFAULT_NAME);
+        if (defaultEntry != null) {
+            // The default database may be handed over, so its queued writes go ahead of that
+            defaultEntry.mWriteQueue.flush();
+        }
+        // Before the writer can finish with it
+        mOpening.put(name, opened);
+        try {
+            mExecutors.writer().execute(() -> {
+                try {
+                    adoptDefaultDatabase(aadId, name);
+                    Entry result = build(name);
+                    openNow(result);
+                    synchronized (this) {
+                        // Held until everyone waiting for it has taken out their own lease
+                        result.mLeases++;
+                        mOpening.remove(name);
+                        added(result);
+                    }
+                    opened.complete(result);
+                    release(result);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        mOpening.remove(name);
+                    }
+                    opened.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The app is stopping
+            mOpening.remove(name);
+            opened.completeExceptionally(e);
+        }
+        return opened;
+    }
+
+    /**
+     * Takes out another lease on an open database, for as long as it is used.
+     *
+     * @param entry the database
+     * @return true if the lease was taken out, false if the database has been closed
+     */
+    synchronized boolean lease(@NonNull final Entry entry) {
+        if (entry.mClosed) {
+            return false;
+        }
+        entry.mLeases++;
+        // Moves it to the most recently used end
+        mOpen.get(entry.mName);
+        return true;
+    }
+
+    /**
+     * Gives up a lease taken out by {@link #acquire(String)} or {@link #lease(Entry)}. If nobody
+     * else is using the database, it may be closed to make room for others.
+     *
+     * @param entry the database
+     */
+    synchronized void release(@NonNull final Entry entry) {
+        if (entry.mLeases > 0) {
+            entry.mLeases--;
+        }
+        evictUnused();
+    }
+
+    /**
+     * Keeps entry open.
+     */
+    private void added(@NonNull final Entry entry) {
+        mOpen.put(entry.mName, entry);
+        evictUnused();
+    }
+
+    /**
+     * Closes the least recently used databases beyond maxOpen that nobody holds a lease on.
+     */
+    private void evictUnused() {
+        Iterator<Map.Entry<String, Entry>> eldest = mOpen.entrySet().iterator();
+        while (mOpen.size() > mMaxOpen && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            if (evicted.mLeases == 0) {
+                eldest.remove();
+                close(evicted);
+            }
+        }
+    }
+
+    /**
+     * Closes an account's database, if it is open, even if it is leased, and deletes it.
+     *
+     * @param aadId the account's AAD ID
+     * @return a future completed once the database's files have been deleted, or completed
+     * exceptionally if they are still there
+     */
+    @NonNull
+    synchronized CompletableFuture<Void> delete(@NonNull final String aadId) {
+        final String name = nameFor(aadId);
+        Entry entry = mOpen.remove(name);
+        if (entry != null) {
+            close(entry);
+        }
+        final CompletableFuture<Void> deleted = new CompletableFuture<>();
+        // Runs after the close, which is queued on the same thread
+        runOnWriter(() -> {
+            if (!mContext.deleteDatabase(name)) {
+                LOGGER.info("No database to delete for " + name);
+            }
+            if (mContext.getDatabasePath(name).exists()) {
+                deleted.completeExceptionally(new IllegalStateException("Failed to delete " + name));
+            } else {
+                deleted.complete(null);
+            }
+        });
+        return deleted;
+    }
+
+    /**
+     * Writes the queued writes of every open database.
+     */
+    synchronized void flushAll() {
+        for (Entry entry : mOpen.values()) {
+            entry.mWriteQueue.flush();
+        }
+    }
+
+    /**
+     * Closes every open database.
+     */
+    synchronized void closeAll() {
+        List<Entry> entries = new ArrayList<>(mOpen.values());
+        mOpen.clear();
+        for (Entry entry : entries) {
+            close(entry);
+        }
+    }
+
+    /**
+     * Builds the database called name, and has the writer open it.
+     */
+    @NonNull
+    private Entry open(@NonNull final String name) {
+        final Entry entry = build(name);
+        /* Room opens, and migrates, a database the first time it is used. Do that now on the
+         * writer, so a long migration never runs on the main thread; queries made meanwhile
+         * wait for it on their own threads. */
+        runOnWriter(() -> openNow(entry));
+        return entry;
+    }
+
+    @NonNull
+    private Entry build(@NonNull final String name) {
+        /* Every upgrade has a migration, so tasks are never dropped; only a downgrade, which
+         * only happens while developing, starts over with an empty database.
+         * WAL lets the reader and query pools keep reading while the writer thread commits.
+         * New databases are created with incremental vacuum, for TaskCompactor. */
+        final TaskDatabase database = Room.databaseBuilder(mContext, TaskDatabase.class, name)
+                .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                .openHelperFactory(new IncrementalVacuumOpenHelperFactory())
+                .setQueryExecutor(mExecutors.queries())
+                .setTransactionExecutor(mExecutors.writer())
+                .addMigrations(TaskDatabase.MIGRATIONS)
+                .fallbackToDestructiveMigrationOnDowngrade().build();
+        return new Entry(name, database, new TaskWriteQueue(database, mExecutors.writer()));
+    }
+
+    @WorkerThread
+    private static void openNow(@NonNull final Entry entry) {
+        final long start = OPEN_LATENCY.start();
+        entry.mDatabase.getOpenHelper().getWritableDatabase();
+        OPEN_LATENCY.stop(start);
+    }
+
+    /**
+     * Writes out entry's queued writes, then closes it once they have been committed. Called
+     * with the pool locked.
+     */
+    private void close(@NonNull final Entry entry) {
+        entry.mClosed = true;
+        entry.mWriteQueue.flush();
+        runOnWriter(entry.mDatabase::close);
+    }
+
+    private void runOnWriter(@NonNull final Runnable runnable) {
+        try {
+            mExecutors.writer().execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // The writer has been shut down as the app stops; this is rare and quick, so do it here
+            runnable.run();
+        }
+    }
+
+    /**
+     * Records which account the single database of older versions belongs to: the account that
+     * was signed in when the settings were first loaded by this version. Does nothing after the
+     * first call, ever, so tasks added later while nobody is signed in are never handed to
+     * whoever signs in next.
+     *
+     * @param aadId the AAD ID of the account in the settings as loaded, or null if there is none
+     */
+    synchronized void recordLegacyOwner(@Nullable final String aadId) {
+        if (legacyOwnerFile().exists()) {
+            return;
+        }
+        boolean owned = aadId != null && mContext.getDatabasePath(DEFAULT_NAME).exists();
+        writeLegacyOwner(owned ? aadId : "");
+        if (owned) {
+            LOGGER.info("The existing task database will move to the signed in account");
+        }
+    }
+
+    /**
+     * Older versions kept every task in a single database. The account recorded by
+     * {@link #recordLegacyOwner(String)} takes it over when its database is first opened, as long
+     * as it doesn't have a database of its own yet. This only ever happens once.
+     *
+     * Runs on the writer, after the default database's queued writes. If any of its files can't
+     * be moved, those already moved are put back, and the account's database isn't opened, so
+     * the tasks stay in the default database and the move is tried again next time.
+     *
+     * @throws IOException if the files could not be moved
+     */
+    @WorkerThread
+    private void adoptDefaultDatabase(@NonNull final String aadId, @NonNull final String name)
+            throws IOException {
+        if (!aadId.equals(readLegacyOwner()) || !mContext.getDatabasePath(DEFAULT_NAME).exists()
+                || mContext.getDatabasePath(name).exists()) {
+            return;
+        }
+        final Entry defaultEntry;
+        synchronized (this) {
+            defaultEntry = mOpen.remove(DEFAULT_NAME);
+            if (defaultEntry != null) {
+                defaultEntry.mClosed = true;
+            }
+        }
+        if (defaultEntry != null) {
+            // The files can only be moved once the database is closed and its writes committed
+            defaultEntry.mWriteQueue.writePending();
+            defaultEntry.mDatabase.close();
+        }
+
+        List<String> moved = new ArrayList<>();
+        try {
+            for (String suffix : FILE_SUFFIXES) {
+                Path from = mContext.getDatabasePath(DEFAULT_NAME + suffix).toPath();
+                if (Files.exists(from)) {
+                    Files.move(from, mContext.getDatabasePath(name + suffix).toPath());
+                    moved.add(suffix);
+                }
+            }
+        } catch (IOException e) {
+            for (int i = moved.size() - 1; i >= 0; i--) {
+                String suffix = moved.get(i);
+                try {
+                    Files.move(mContext.getDatabasePath(name + suffix).toPath(),
+                            mContext.getDatabasePath(DEFAULT_NAME + suffix).toPath());
+                } catch (IOException rollback) {
+                    e.addSuppressed(rollback);
+                }
+            }
+            LOGGER.log(Level.SEVERE, "Failed to move the task database to " + name, e);
+            throw e;
+        }
+        writeLegacyOwner("");
+    }
+
+    @Nullable
+    private String readLegacyOwner() {
+        try {
+            byte[] owner = Files.readAllBytes(legacyOwnerFile().toPath());
+            return owner.length == 0 ? null : new String(owner, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the task database's owner", e);
+            return null;
+        }
+    }
+
+    private void writeLegacyOwner(@NonNull final String aadId) {
+        try {
+            Files.write(legacyOwnerFile().toPath(), aadId.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to record the task database's owner", e);
+        }
+    }
+
+    @NonNull
+    private File legacyOwnerFile() {
+        return new File(mContext.getFilesDir(), LEGACY_OWNER_FILE);
+    }
+
+    /**
+     * @return the database name for an account; AAD IDs are made of hex digits, dashes and dots
+     */
+    @NonNull
+    static String nameFor(@Nullable final String aadId) {
+        if (aadId == null) {
+            return DEFAULT_NAME;
+        }
+        return "tasks-" + aadId.replaceAll("[^A-Za-z0-9.-]", "_") + ".db";
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Deletes every Task in a database a chunk at a time. Each chunk is its own short statement,
+ * queued separately on the writer, so emptying a huge table never holds the database for
+ * seconds at a time and other writes can run between chunks.
+ */
+public final class TaskDeleter {
+    /**
+     * The default number of Tasks deleted per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private TaskDeleter() {
+    }
+
+    /**
+     * Starts deleting every Task in database.
+     *
+     * @param database  the database to empty
+     * @param writer    the executor database writes run on
+     * @param chunkSize the most Tasks deleted by each statement
+     * @return a future completed with the number of Tasks deleted
+     */
+    @NonNull
+    public static CompletableFuture<Integer> deleteAll(@NonNull final TaskDatabase database,
+                                                       @NonNull final Executor writer,
+                                                       final int chunkSize) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        new Chunk(database.taskDao(), writer, Math.max(1, chunkSize), result).submit();
+        return result;
+    }
+
+    private static final class Chunk implements Runnable {
+        private final TaskDao mDao;
+        private final Executor mWriter;
+        private final int mChunkSize;
+        private final CompletableFuture<Integer> mResult;
+        private int mDeleted;
+
+        Chunk(@NonNull final TaskDao dao, @NonNull final Executor writer, final int chunkSize,
+              @NonNull final CompletableFuture<Integer> result) {
+            mDao = dao;
+            mWriter = writer;
+            mChunkSize = chunkSize;
+            mResult = result;
+        }
+
+        void submit() {
+            try {
+                mWriter.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The writer has shut down. Deleting here would write off the writer thread
+                mResult.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int deleted = mDao.deleteChunk(mChunkSize);
+                mDeleted += deleted;
+                if (deleted < mChunkSize) {
+                    mResult.complete(mDeleted);
+                } else {
+                    // Requeue rather than loop, so writes waiting on the writer go in between
+                    submit();
+                }
+            } catch (RuntimeException e) {
+                mResult.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Streams every Task in the database into a document. Tasks are read a page at a time and
+ * written straight to the output, so memory use does not grow with the size of the table.
+ */
+public class TaskDocumentExporter {
+    /**
+     * The number of Tasks read from the database at once.
+     */
+    public static final int PAGE_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Receives updates as an export makes its way through the table.
+     * Called on the thread running the export.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each page of Tasks has been written.
+         *
+         * @param rowsWritten the number of Tasks written so far
+         * @param totalRows   the number of Tasks in the table when the export started
+         */
+        void onProgress(int rowsWritten, int totalRows);
+    }
+
+    private final TaskDao mDao;
+    private final TaskRowEncoder mEncoder;
+    private final String mIdHeader;
+    private final String mDescriptionHeader;
+
+    public TaskDocumentExporter(@NonNull final TaskDao dao, @NonNull final TaskRowEncoder encoder,
+                                @NonNull final String idHeader,
+                                @NonNull final String descriptionHeader) {
+        mDao = dao;
+        mEncoder = encoder;
+        mIdHeader = idHeader;
+        mDescriptionHeader = descriptionHeader;
+    }
+
+    /**
+     * Writes the document to out as UTF-8. out is buffered, flushed at the end, but not closed.
+     *
+     * @param out      the stream to write the document to
+     * @param listener notified after each page, may be null
+     * @param signal   checked before each page, may be null
+     * @return the number of Tasks written
+     * @throws IOException                if out could not be written to
+     * @throws OperationCanceledException if signal was cancelled before the export finished
+     */
+    @WorkerThread
+    public int export(@NonNull final OutputStream out, @Nullable final ProgressListener listener,
+                      @Nullable final CancellationSignal signal) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        return export(writer, listener, signal);
+    }
+
+    /**
+     * Writes the document to out. out is buffered, flushed at the end, but not closed.
+     *
+     * @param out      the writer to write the document to
+     * @param listener notified after each page, may be null
+     * @param signal   checked before each page, may be null
+     * @return the number of Tasks written
+     * @throws IOException                if out could not be written to
+     * @throws OperationCanceledException if signal was cancelled before the export finished
+     */
+    @WorkerThread
+    public int export(@NonNull final Writer out, @Nullable final ProgressListener listener,
+                      @Nullable final CancellationSignal signal) throws IOException {
+        Writer writer = out instanceof BufferedWriter ? out : new BufferedWriter(out, BUFFER_SIZE);
+        int total = listener == null ? 0 : mDao.count();
+        int written = 0;
+
+        mEncoder.writeHeader(writer, mIdHeader, mDescriptionHeader);
+        long lastId = 0;
+        List<Task> page;
+        do {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            page = mDao.getPageAfter(lastId, PAGE_SIZE);
+            for (Task task : page) {
+                mEncoder.writeRow(writer, task);
+                lastId = task.getId();
+            }
+            written += page.size();
+            if (listener != null && !page.isEmpty()) {
+                listener.onProgress(written, Math.max(total, written));
+            }
+        } while (page.size() == PAGE_SIZE);
+        mEncoder.writeFooter(writer);
+
+        writer.flush();
+        return written;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Full-text index over the descriptions of Tasks. Room keeps it in sync with the task table
+ * through triggers, so it never needs to be written to directly.
+ */
+@Fts4(contentEntity = Task.class)
+@Entity(tableName = TaskFts.TABLE)
+public class TaskFts {
+    /**
+     * The name of the table the index is stored in.
+     */
+    public static final String TABLE = "task_fts";
+
+    private final String mDescription;
+
+    public TaskFts(final String description) {
+        this.mDescription = description;
+    }
+
+    /**
+     * Gets the indexed description.
+     * @return the description
+     */
+    public String getDescription() {
+        return this.mDescription;
+    }
+
+    /**
+     * Turns text typed by a user into an FTS MATCH expression. Every word must appear in a
+     * description, and the last one may be the start of a longer word.
+     * @param text the user's search text
+     * @return a MATCH expression, or null if text has no words in it
+     */
+    public static String toMatchQuery(@NonNull final String text) {
+        StringBuilder query = new StringBuilder();
+        for (String word : text.replace("\"", " ").trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            // Quoting the word stops FTS from treating it as an operator
+            query.append('"').append(word).append("\"*");
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.ItemKeyedDataSource;
+import androidx.room.InvalidationTracker;
+
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A DataSource that loads windows of Tasks using their ids as keys. Each load is a keyset query
+ * on mId, so a window costs the same no matter how far into the table it is. Searches are loaded
+ * by {@link TaskSearchDataSource} instead, since their matches are ranked.
+ *
+ * Invalidates itself whenever the task table changes, so the owning PagedList is replaced.
+ */
+public class TaskKeyedDataSource extends ItemKeyedDataSource<Long, Task> {
+    private static final LatencyHistogram PAGE_LOAD = MetricsRegistry.histogram("db.page_load");
+
+    /**
+     * The keyset queries that load the pages.
+     */
+    private interface Pages {
+        List<Task> after(long afterId, int limit);
+
+        List<Task> before(long beforeId, int limit);
+    }
+
+    private final Pages mPages;
+
+    private TaskKeyedDataSource(@NonNull final TaskDatabase database, @NonNull final Pages pages) {
+        mPages = pages;
+
+        final InvalidationTracker.Observer observer =
+                new InvalidationTracker.Observer(TaskDao.TABLE) {
+            @Override
+            public void onInvalidated(@NonNull final Set<String> tables) {
+                invalidate();
+            }
+        };
+        database.getInvalidationTracker().addObserver(observer);
+        addInvalidatedCallback(
+                () -> database.getInvalidationTracker().removeObserver(observer));
+    }
+
+    @Override
+    public void loadInitial(@NonNull final LoadInitialParams<Long> params,
+                            @NonNull final LoadInitialCallback<Task> callback) {
+        // Start from the requested key, inclusive, or from the beginning of the table
+        long afterId = params.requestedInitialKey == null ? 0 : params.requestedInitialKey - 1;
+        long start = PAGE_LOAD.start();
+        List<Task> page = mPages.after(afterId, params.requestedLoadSize);
+        PAGE_LOAD.stop(start);
+        callback.onResult(page);
+    }
+
+    @Override
+    public void loadAfter(@NonNull final LoadParams<Long> params,
+                          @NonNull final LoadCallback<Task> callback) {
+        long start = PAGE_LOAD.start();
+        List<Task> page = mPages.after(params.key, params.requestedLoadSize);
+        PAGE_LOAD.stop(start);
+        callback.onResult(page);
+    }
+
+    @Override
+    public void loadBefore(@NonNull final LoadParams<Long> params,
+                           @NonNull final LoadCallback<Task> callback) {
+        // The query returns the nearest tasks first, but the callback expects them in list order
+        long start = PAGE_LOAD.start();
+        List<Task> page = mPages.before(params.key, params.requestedLoadSize);
+        PAGE_LOAD.stop(start);
+        Collections.reverse(page);
+        callback.onResult(page);
+    }
+
+    @NonNull
+    @Override
+    public Long getKey(@NonNull final Task item) {
+        return item.getId();
+    }
+
+    /**
+     * Creates a new TaskKeyedDataSource each time the previous one is invalidated.
+     */
+    public static class Factory extends DataSource.Factory<Long, Task> {
+        private final TaskDatabase mDatabase;
+
+        /**
+         * Creates DataSources that load every open Task.
+         *
+         * @param database the database to load Tasks from
+         */
+        public Factory(@NonNull final TaskDatabase database) {
+            mDatabase = database;
+        }
+
+        @NonNull
+        @Override
+        public DataSource<Long, Task> create() {
+            final TaskDao dao = mDatabase.taskDao();
+            return new TaskKeyedDataSource(mDatabase, new Pages() {
+                @Override
+                public List<Task> after(final long afterId, final int limit) {
+                    return dao.getPageAfter(afterId, limit);
+                }
+
+                @Override
+                public List<Task> before(final long beforeId, final int limit) {
+                    return dao.getPageBefore(beforeId, limit);
+                }
+            });
+        }
+    }
+}
@@ -5,85 +5,97 @@
 
 package com.microsoft.intune.samples.taskr.room;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageButton;
-import android.widget.ListAdapter;
 import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.paging.PagedListAdapter;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.microsoft.intune.samples.taskr.R;
 
-import java.util.List;
-
 /**
- * A ListAdapter that updates a ListView to show Tasks.
+ * An adapter that updates a RecyclerView to show Tasks. Tasks are read from a PagedList, which
+ * loads more of them from the database as the view scrolls.
+ *
+ * When a new list is submitted, the differences from the old one are worked out on a background
+ * thread, so only the rows that actually changed are re-bound.
  */
-public class TaskListAdapter extends BaseAdapter implements ListAdapter {
-
-    private List<Task> mList;
-    private final Context mContext;
-
-    public TaskListAdapter(final Context context) {
-        this.mContext = context;
-    }
+public class TaskListAdapter extends PagedListAdapter<Task, TaskListAdapter.TaskViewHolder> {
 
     /**
-     * Sets the list that this adapter displays to be list, then updates the view to show it.
-     *
-     * @param list the new list to display
+     * Tasks are the same item if they have the same id, and unchanged if they are equal.
      */
-    public void setList(final List<Task> list) {
-        this.mList = list;
-        notifyDataSetChanged();
-    }
+    private static final DiffUtil.ItemCallback<Task> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Task>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull final Task oldTask, @NonNull final Task newTask) {
+            return oldTask.getId() == newTask.getId();
+        }
 
-    @Override
-    public int getCount() {
-        return mList == null ? 0 : mList.size();
+        @Override
+        public boolean areContentsTheSame(@NonNull final Task oldTask, @NonNull final Task newTask) {
+            return oldTask.equals(newTask);
+        }
+    };
+
+    // Shared by every row. The button's tag holds the row's view holder.
+    private final View.OnClickListener mCompleteListener = (final View v) -> {
+        TaskViewHolder holder = (TaskViewHolder) v.getTag();
+        int position = holder.getBindingAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        Task task = getItem(position);
+        if (task != null) {
+            RoomManager.completeTask(task);
+        }
+    };
+
+    public TaskListAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
     }
 
     @Override
-    public Object getItem(final int position) {
-        return mList == null ? null : mList.get(position);
+    public long getItemId(final int position) {
+        Task task = getItem(position);
+        return task == null ? RecyclerView.NO_ID : task.getId();
     }
 
+    @NonNull
     @Override
-    public long getItemId(final int position) {
-        return mList == null ? -1 : mList.get(position).getId();
+    public TaskViewHolder onCreateViewHolder(@NonNull final ViewGroup parent, final int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.task_list_item, parent, false);
+        TaskViewHolder holder = new TaskViewHolder(view);
+        holder.mCompleteButton.setTag(holder);
+        holder.mCompleteButton.setOnClickListener(mCompleteListener);
+        return holder;
     }
 
     @Override
-    public View getView(final int position, final View convertView, final ViewGroup parent) {
-        View view = convertView;
-        // convertView may be null the first time this method is called
-        if (view == null) {
-            LayoutInflater inflater = (LayoutInflater)
-                    mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            if (inflater == null) {
-                return null;
-            }
-            view = inflater.inflate(R.layout.task_list_item, parent, false);
-        }
+    public void onBindViewHolder(@NonNull final TaskViewHolder holder, final int position) {
+        // Getting the item also lets the list know to load the next window in time
+        Task task = getItem(position);
+        holder.mDescription.setText(task == null ? null : task.getDescription());
+        holder.mCompleteButton.setEnabled(task != null);
+    }
 
-        // The mList may not have been set yet, so if it hasn't been exit
-        if (mList == null) {
-            return view;
+    /**
+     * Holds the views of a single row, so they are only looked up once.
+     */
+    public static class TaskViewHolder extends RecyclerView.ViewHolder {
+        private final TextView mDescription;
+        private final ImageButton mCompleteButton;
+
+        TaskViewHolder(@NonNull final View itemView) {
+            super(itemView);
+            mDescription = itemView.findViewById(R.id.task_list_item_description);
+            mCompleteButton = itemView.findViewById(R.id.task_list_complete_button);
         }
-
-        // Get the fields to fill in
-        TextView liDescription = view.findViewById(R.id.task_list_item_description);
-
-        // Fill them in
-        final Task task = mList.get(position);
-        liDescription.setText(task.getDescription());
-
-        // Set the check button listener. It will just call the complete method on this task.
-        ImageButton completeButton = view.findViewById(R.id.task_list_complete_button);
-        completeButton.setOnClickListener((final View v) -> RoomManager.completeTask(task));
-
-        return view;
     }
 }
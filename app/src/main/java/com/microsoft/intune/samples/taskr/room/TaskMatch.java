@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The id of a Task that matched a search, and how well it matched, as reported by the full-text
+ * index's matchinfo function.
+ */
+public class TaskMatch {
+    /**
+     * The matchinfo format the score is computed from: the number of phrases, the number of
+     * columns, then for each phrase and column, its hits in this row, its hits in every row, and
+     * the number of rows it hits.
+     */
+    public static final String MATCH_INFO_FORMAT = "pcx";
+
+    private final long mId;
+    private final byte[] mMatchInfo;
+
+    public TaskMatch(final long id, final byte[] matchInfo) {
+        this.mId = id;
+        this.mMatchInfo = matchInfo;
+    }
+
+    /**
+     * Gets the id of the matching task.
+     * @return the task's id
+     */
+    public long getId() {
+        return this.mId;
+    }
+
+    /**
+     * Gets the raw matchinfo blob.
+     * @return the blob, an array of native-endian 32-bit unsigned integers
+     */
+    public byte[] getMatchInfo() {
+        return this.mMatchInfo;
+    }
+
+    /**
+     * Scores the match the way SQLite's documentation suggests: each phrase contributes its hits
+     * in this task divided by its hits across every task, so a task that mentions a rare word
+     * several times ranks above one that mentions a common word once.
+     * @return the score, higher for better matches
+     */
+    public double getScore() {
+        if (mMatchInfo == null || mMatchInfo.length < 2 * Integer.BYTES) {
+            return 0;
+        }
+        IntBuffer info = ByteBuffer.wrap(mMatchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hits = 2 + 3 * (phrase * columns + column);
+                if (hits + 1 >= info.limit()) {
+                    return score;
+                }
+                int rowHits = info.get(hits);
+                int allHits = info.get(hits + 1);
+                if (rowHits > 0 && allHits > 0) {
+                    score += (double) rowHits / allHits;
+                }
+            }
+        }
+        return score;
+    }
+}
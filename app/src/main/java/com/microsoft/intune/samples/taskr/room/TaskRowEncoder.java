@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Encodes Tasks, one row at a time, into a document format such as CSV or HTML.
+ * Implementations must not keep a reference to the rows they are given.
+ */
+public interface TaskRowEncoder {
+    /**
+     * Writes whatever comes before the first row of the document.
+     *
+     * @param out               the writer to append to
+     * @param idHeader          the title of the id column
+     * @param descriptionHeader the title of the description column
+     * @throws IOException if out could not be written to
+     */
+    void writeHeader(@NonNull Writer out, @NonNull String idHeader,
+                     @NonNull String descriptionHeader) throws IOException;
+
+    /**
+     * Writes a single Task as a row of the document.
+     *
+     * @param out  the writer to append to
+     * @param task the Task to encode
+     * @throws IOException if out could not be written to
+     */
+    void writeRow(@NonNull Writer out, @NonNull Task task) throws IOException;
+
+    /**
+     * Writes whatever comes after the last row of the document.
+     *
+     * @param out the writer to append to
+     * @throws IOException if out could not be written to
+     */
+    void writeFooter(@NonNull Writer out) throws IOException;
+}
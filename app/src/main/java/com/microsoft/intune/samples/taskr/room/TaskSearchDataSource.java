@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.paging.DataSource;
+import androidx.paging.PositionalDataSource;
+import androidx.room.InvalidationTracker;
+
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A DataSource that loads the open Tasks whose descriptions match a search, best matches first.
+ *
+ * When it is first loaded, the ids of at most {@link #MAX_SEARCH_CANDIDATES} matches are read
+ * with their matchinfo, ranked by {@link TaskMatch#getScore()}, and the best
+ * {@link #MAX_SEARCH_RESULTS} are kept. Pages are then loaded by position in that ranking, by
+ * id. Only ids and scores are held for the whole search, never every matching Task. A search
+ * that matches more than MAX_SEARCH_CANDIDATES Tasks only ranks the first of them, in id order.
+ *
+ * Invalidates itself whenever the task table changes, so the owning PagedList is replaced.
+ */
+public class TaskSearchDataSource extends PositionalDataSource<Task> {
+    /**
+     * The most Tasks a search shows. Nobody scrolls further than this through search results.
+     */
+    public static final int MAX_SEARCH_RESULTS = 500;
+
+    /**
+     * The most matches that are ranked, which bounds the work done by a search that matches
+     * most of the table.
+     */
+    public static final int MAX_SEARCH_CANDIDATES = 5000;
+
+    private static final LatencyHistogram RANK_LATENCY = MetricsRegistry.histogram("db.search_rank");
+    private static final LatencyHistogram PAGE_LOAD = MetricsRegistry.histogram("db.page_load");
+
+    private final TaskDao mDao;
+    @Nullable
+    private final String mMatchQuery;
+    // The ranked ids, set by loadInitial
+    private volatile List<Long> mIds = Collections.emptyList();
+
+    private TaskSearchDataSource(@NonNull final TaskDatabase database,
+                                 @Nullable final String matchQuery) {
+        mDao = database.taskDao();
+        mMatchQuery = matchQuery;
+
+        final InvalidationTracker.Observer observer =
+                new InvalidationTracker.Observer(TaskDao.TABLE) {
+            @Override
+            public void onInvalidated(@NonNull final Set<String> tables) {
+                invalidate();
+            }
+        };
+        database.getInvalidationTracker().addObserver(observer);
+        addInvalidatedCallback(
+                () -> database.getInvalidationTracker().removeObserver(observer));
+    }
+
+    @Override
+    public void loadInitial(@NonNull final LoadInitialParams params,
+                            @NonNull final LoadInitialCallback<Task> callback) {
+        final List<Long> ids = mMatchQuery == null ? Collections.emptyList() : rank(mMatchQuery);
+        mIds = ids;
+        int position = computeInitialLoadPosition(params, ids.size());
+        int size = computeInitialLoadSize(params, position, ids.size());
+        List<Task> page = load(ids, position, size);
+        if (page.size() < Math.min(size, ids.size() - position)) {
+            // Some were completed since they were ranked, which invalidates this source anyway
+            callback.onResult(page, position, position + page.size());
+            return;
+        }
+        callback.onResult(page, position, ids.size());
+    }
+
+    @Override
+    public void loadRange(@NonNull final LoadRangeParams params,
+                          @NonNull final LoadRangeCallback<Task> callback) {
+        callback.onResult(load(mIds, params.startPosition, params.loadSize));
+    }
+
+    /**
+     * @return the ids of the best matches for matchQuery, best first
+     */
+    @NonNull
+    private List<Long> rank(@NonNull final String matchQuery) {
+        long start = RANK_LATENCY.start();
+        List<TaskMatch> matches = mDao.searchMatches(matchQuery, MAX_SEARCH_CANDIDATES);
+        final Map<TaskMatch, Double> scores = new HashMap<>();
+        for (TaskMatch match : matches) {
+            scores.put(match, match.getScore());
+        }
+        // Ties keep the order of the rest of the list
+        Collections.sort(matches, Comparator.<TaskMatch>comparingDouble(scores::get).reversed()
+                .thenComparingLong(TaskMatch::getId));
+        List<Long> ids = new ArrayList<>(Math.min(matches.size(), MAX_SEARCH_RESULTS));
+        for (int i = 0; i < matches.size() && i < MAX_SEARCH_RESULTS; i++) {
+            ids.add(matches.get(i).getId());
+        }
+        RANK_LATENCY.stop(start);
+        return ids;
+    }
+
+    /**
+     * @return the Tasks at positions [start, start + size) of ids, in the same order, less any
+     * completed since they were ranked
+     */
+    @NonNull
+    private List<Task> load(@NonNull final List<Long> ids, final int start, final int size) {
+        int end = Math.min(ids.size(), start + size);
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        long loadStart = PAGE_LOAD.start();
+        List<Long> pageIds = ids.subList(start, end);
+        Map<Long, Task> byId = new HashMap<>();
+        for (Task task : mDao.getOpenByIds(pageIds)) {
+            byId.put(task.getId(), task);
+        }
+        List<Task> page = new ArrayList<>(pageIds.size());
+        for (Long id : pageIds) {
+            Task task = byId.get(id);
+            if (task != null) {
+                page.add(task);
+            }
+        }
+        PAGE_LOAD.stop(loadStart);
+        return page;
+    }
+
+    /**
+     * Creates a new TaskSearchDataSource each time the previous one is invalidated.
+     */
+    public static class Factory extends DataSource.Factory<Integer, Task> {
+        private final TaskDatabase mDatabase;
+        @Nullable
+        private final String mMatchQuery;
+
+        /**
+         * Creates DataSources that load the open Tasks whose descriptions match a search.
+         *
+         * @param database   the database to search
+         * @param matchQuery an FTS MATCH expression, see {@link TaskFts#toMatchQuery(String)}, or
+         *                   null to find nothing
+         */
+        public Factory(@NonNull final TaskDatabase database, @Nullable final String matchQuery) {
+            mDatabase = database;
+            mMatchQuery = matchQuery;
+        }
+
+        @NonNull
+        @Override
+        public DataSource<Integer, Task> create() {
+            return new TaskSearchDataSource(mDatabase, mMatchQuery);
+        }
+    }
+}
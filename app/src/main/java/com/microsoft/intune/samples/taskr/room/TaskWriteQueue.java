@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.room;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A write-behind queue for Task inserts and completions. Writes are held briefly and then applied
+ * together in a single transaction, so a burst of writes costs one commit and one LiveData
+ * invalidation instead of one per Task.
+ *
+ * A batch is written once it holds MAX_BATCH_SIZE writes, FLUSH_DELAY_MS after its first write,
+ * or when flush is called, whichever comes first.
+ */
+final class TaskWriteQueue {
+    private static final Logger LOGGER = Logger.getLogger(TaskWriteQueue.class.getName());
+
+    static final int MAX_BATCH_SIZE = 100;
+    static final long FLUSH_DELAY_MS = 250;
+
+    private static final LatencyHistogram BATCH_LATENCY = MetricsRegistry.histogram("db.write_batch");
+    private static final Counter WRITES = MetricsRegistry.counter("db.writes");
+    private static final Counter WRITE_FAILURES = MetricsRegistry.counter("db.write_failures");
+
+    private final TaskDatabase mDatabase;
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = this::flush;
+
+    private final Object mLock = new Object();
+    private List<Task> mInserts = new ArrayList<>();
+    private List<CompletableFuture<Long>> mInsertResults = new ArrayList<>();
+    private List<Task> mCompletions = new ArrayList<>();
+    private List<CompletableFuture<Void>> mCompletionResults = new ArrayList<>();
+    private boolean mFlushScheduled;
+
+    /**
+     * @param database the database to write to
+     * @param executor the executor batches are written on; should run tasks one at a time, in order
+     */
+    TaskWriteQueue(@NonNull final TaskDatabase database, @NonNull final Executor executor) {
+        mDatabase = database;
+        mExecutor = executor;
+    }
+
+    /**
+     * Queues task to be inserted. Its id is set once the batch it is part of has been written.
+     *
+     * @param task the task to insert
+     * @return a future completed with the id assigned to task
+     */
+    CompletableFuture<Long> insert(@NonNull final Task task) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        synchronized (mLock) {
+            mInserts.add(task);
+            mInsertResults.add(result);
+        }
+        onQueued();
+        return result;
+    }
+
+    /**
+     * Queues task to be marked as completed. If task is waiting to be inserted, it is inserted
+     * first. Completed tasks stay in the database until {@link TaskCompactor} archives them.
+     *
+     * @param task the task to complete
+     * @return a future completed once task has been marked as completed
+     */
+    CompletableFuture<Void> complete(@NonNull final Task task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        synchronized (mLock) {
+            mCompletions.add(task);
+            mCompletionResults.add(result);
+        }
+        onQueued();
+        return result;
+    }
+
+    /**
+     * Writes everything currently queued without waiting for the batch to fill up. Anything
+     * submitted to the executor after this call runs after the batch has been written.
+     */
+    void flush() {
+        synchronized (mLock) {
+            mFlushScheduled = false;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        try {
+            mExecutor.execute(this::writeBatch);
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down; keep the writes queued and try again shortly
+            LOGGER.log(Level.WARNING, "Database executor rejected the flush, retrying", e);
+            synchronized (mLock) {
+                mFlushScheduled = true;
+            }
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Writes everything currently queued on the calling thread, which must be the executor's.
+     */
+    @WorkerThread
+    void writePending() {
+        synchronized (mLock) {
+            mFlushScheduled = false;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        writeBatch();
+    }
+
+    /**
+     * @return the number of inserts and completions waiting to be written
+     */
+    int getPendingCount() {
+        synchronized (mLock) {
+            return mInserts.size() + mCompletions.size();
+        }
+    }
+
+    private void onQueued() {
+        boolean flushNow;
+        boolean scheduleFlush = false;
+        synchronized (mLock) {
+            flushNow = mInserts.size() + mCompletions.size() >= MAX_BATCH_SIZE;
+            if (!flushNow && !mFlushScheduled) {
+                mFlushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        } else if (scheduleFlush) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    @WorkerThread
+    private void writeBatch() {
+        final List<Task> inserts;
+        final List<CompletableFuture<Long>> insertResults;
+        final List<Task> completions;
+        final List<CompletableFuture<Void>> completionResults;
+        synchronized (mLock) {
+            if (mInserts.isEmpty() && mCompletions.isEmpty()) {
+                return;
+            }
+            inserts = mInserts;
+            insertResults = mInsertResults;
+            completions = mCompletions;
+            completionResults = mCompletionResults;
+            mInserts = new ArrayList<>();
+            mInsertResults = new ArrayList<>();
+            mCompletions = new ArrayList<>();
+            mCompletionResults = new ArrayList<>();
+        }
+
+        final TaskDao dao = mDatabase.taskDao();
+        final long start = BATCH_LATENCY.start();
+        try {
+            /* Inserts go first so that a task which was completed before it was written gets its
+             * id, and so can be found by the update that follows. Completing only flips a flag,
+             * so no rows are freed here; TaskCompactor moves completed tasks out in bulk later. */
+            long[] ids = mDatabase.runInTransaction(() -> {
+                long[] insertedIds = dao.insertAll(inserts.toArray(new Task[0]));
+                for (int i = 0; i < insertedIds.length; i++) {
+                    inserts.get(i).setId(insertedIds[i]);
+                }
+                if (!completions.isEmpty()) {
+                    final long now = System.currentTimeMillis();
+                    List<Long> completedIds = new ArrayList<>(completions.size());
+                    for (Task task : completions) {
+                        completedIds.add(task.getId());
+                    }
+                    dao.completeAll(completedIds, now);
+                }
+                return insertedIds;
+            });
+            BATCH_LATENCY.stop(start);
+            WRITES.add(inserts.size() + completions.size());
+
+            for (int i = 0; i < ids.length; i++) {
+                insertResults.get(i).complete(ids[i]);
+            }
+            for (CompletableFuture<Void> result : completionResults) {
+                result.complete(null);
+            }
+        } catch (RuntimeException e) {
+            WRITE_FAILURES.increment();
+            LOGGER.log(Level.SEVERE, "Failed to write batch of " + inserts.size()
+                    + " inserts and " + completions.size() + " completions", e);
+            for (CompletableFuture<Long> result : insertResults) {
+                result.completeExceptionally(e);
+            }
+            for (CompletableFuture<Void> result : completionResults) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network
+
+import okhttp3.OkHttpClient
+import org.apache.hc.client5.http.config.RequestConfig
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient
+import org.apache.hc.client5.http.impl.classic.HttpClients
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory
+import org.apache.hc.core5.util.Timeout
+import java.util.concurrent.TimeUnit
+
+/**
+ * Builds the HTTP clients [TrustedRootsNetworkHandler] shares between requests. The benchmarks
+ * use it too, so that they measure clients set up the way the app sets them up.
+ */
+object HttpClientFactory {
+
+    /**
+     * The most connections an Apache client keeps open.
+     */
+    const val MAX_CONNECTIONS = 20
+
+    /**
+     * The most connections an Apache client keeps open to one host.
+     */
+    const val MAX_CONNECTIONS_PER_ROUTE = 5
+
+    /**
+     * The longest a client waits to connect, including the TLS handshake.
+     */
+    const val CONNECT_TIMEOUT_SECONDS = 10L
+
+    /**
+     * The longest a client waits for the server between two reads or writes.
+     */
+    const val READ_TIMEOUT_SECONDS = 20L
+
+    /**
+     * The longest an Apache client waits for a pooled connection to be free.
+     */
+    const val POOL_TIMEOUT_SECONDS = 10L
+
+    /**
+     * Builds an OkHttpClient which trusts the platform's roots. OkHttp pools connections, and
+     * negotiates HTTP/2 with ALPN whenever the server supports it.
+     */
+    @JvmStatic
+    fun okHttp(): OkHttpClient {
+        return OkHttpClient.Builder()
+            .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .writeTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build()
+    }
+
+    /**
+     * Builds an OkHttpClient which trusts the roots in material. It is derived from base, so the
+     * two share one connection pool and dispatcher.
+     */
+    @JvmStatic
+    fun okHttp(base: OkHttpClient, material: TrustMaterial): OkHttpClient {
+        return base.newBuilder()
+            .sslSocketFactory(material.socketFactory, material.trustManager)
+            .build()
+    }
+
+    /**
+     * Builds an Apache client with a pool of connections, which trusts the roots in material,
+     * or the platform's roots if material is null. Close it once it is no longer needed.
+     */
+    @JvmStatic
+    fun apache(material: TrustMaterial?): CloseableHttpClient {
+        val socketFactory = if (material == null) {
+            SSLConnectionSocketFactory.getSocketFactory()
+        } else {
+            SSLConnectionSocketFactory(material.sslContext)
+        }
+        val connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setSSLSocketFactory(socketFactory)
+            .setMaxConnTotal(MAX_CONNECTIONS)
+            .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+            .build()
+        // Without a pool timeout, a request waits forever once every connection is leased
+        val requestConfig = RequestConfig.custom()
+            .setConnectTimeout(Timeout.ofSeconds(CONNECT_TIMEOUT_SECONDS))
+            .setResponseTimeout(Timeout.ofSeconds(READ_TIMEOUT_SECONDS))
+            .setConnectionRequestTimeout(Timeout.ofSeconds(POOL_TIMEOUT_SECONDS))
+            .build()
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .build()
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network
+
+/**
+ * The outcome of a request sent by [TrustedRootsNetworkHandler].
+ *
+ * @property status the response's status code and reason.
+ * @property body the head of the response body.
+ * @property timeToFirstByteNanos the time from sending the request until its response headers came back.
+ * @property totalNanos the time from sending the request until its body had been read.
+ */
+class HttpResult(
+    val status: String,
+    val body: ResponseBodyReader.Body,
+    val timeToFirstByteNanos: Long,
+    val totalNanos: Long
+)
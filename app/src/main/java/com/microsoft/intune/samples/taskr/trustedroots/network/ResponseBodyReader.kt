@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network
+
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.nio.charset.Charset
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reads response bodies in chunks, keeping no more than a set number of bytes of them, so a
+ * large response can't use up the app's memory or hold up the UI.
+ */
+object ResponseBodyReader {
+
+    /**
+     * The number of characters read at a time.
+     */
+    const val CHUNK_SIZE = 8 * 1024
+
+    /**
+     * The most characters handed to a [ProgressListener] at a time.
+     */
+    const val PROGRESS_HEAD_CHARS = 4 * 1024
+
+    private val PROGRESS_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100)
+
+    /**
+     * The head of a response body.
+     *
+     * @property text the body, decoded, up to the size limit.
+     * @property bytes the number of bytes of the body which were read.
+     * @property truncated true if the body went on past the size limit.
+     */
+    class Body(val text: String, val bytes: Long, val truncated: Boolean)
+
+    /**
+     * Told how far through the body the reader is while it is being read.
+     */
+    fun interface ProgressListener {
+        /**
+         * @param bytes the number of bytes of the body read so far.
+         * @param head the start of the body, decoded, no more than [PROGRESS_HEAD_CHARS] of it.
+         */
+        fun onProgress(bytes: Long, head: String)
+    }
+
+    /**
+     * An empty body, for responses which have none.
+     */
+    val EMPTY = Body("", 0, false)
+
+    /**
+     * Reads stream until it ends or maxBytes have been read, whichever comes first. Blocks, so
+     * call this off the main thread. The stream is left open.
+     *
+     * @param stream the body.
+     * @param charset the charset the body is encoded in.
+     * @param maxBytes the most bytes to read.
+     * @param listener told how much of the body has been read, at most every 100ms, or null.
+     * @return the head of the body.
+     */
+    fun read(
+        stream: InputStream,
+        charset: Charset,
+        maxBytes: Long,
+        listener: ProgressListener?
+    ): Body {
+        val limited = LimitedInputStream(stream, maxBytes)
+        val reader = InputStreamReader(limited, charset)
+        val text = StringBuilder()
+        val chunk = CharArray(CHUNK_SIZE)
+        var lastProgress = System.nanoTime()
+        // Set once it is full, after which it never changes
+        var fullHead: String? = null
+        while (true) {
+            val count = reader.read(chunk)
+            if (count < 0) {
+                break
+            }
+            text.append(chunk, 0, count)
+            val now = System.nanoTime()
+            if (listener != null && now - lastProgress >= PROGRESS_INTERVAL_NS) {
+                // The head is only copied until it is full, so reporting progress costs nothing after that
+                val head = fullHead ?: text.substring(0, minOf(text.length, PROGRESS_HEAD_CHARS))
+                if (head.length == PROGRESS_HEAD_CHARS) {
+                    fullHead = head
+                }
+                listener.onProgress(limited.count, head)
+                lastProgress = now
+            }
+        }
+        return Body(text.toString(), limited.count, limited.truncated)
+    }
+
+    /**
+     * Ends a stream after a number of bytes, and notes whether there was more to it.
+     */
+    private class LimitedInputStream(stream: InputStream, private val limit: Long) :
+        FilterInputStream(stream) {
+
+        var count = 0L
+            private set
+
+        var truncated = false
+            private set
+
+        override fun read(): Int {
+            if (atLimit()) {
+                return -1
+            }
+            val value = super.read()
+            if (value >= 0) {
+                count++
+            }
+            return value
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (atLimit()) {
+                return -1
+            }
+            val read = super.read(b, off, minOf(len.toLong(), limit - count).toInt())
+            if (read > 0) {
+                count += read
+            }
+            return read
+        }
+
+        override fun skip(n: Long): Long = 0
+
+        override fun available(): Int = minOf(super.available().toLong(), limit - count).toInt()
+
+        override fun markSupported(): Boolean = false
+
+        private fun atLimit(): Boolean {
+            if (count < limit) {
+                return false
+            }
+            if (!truncated) {
+                // Look one byte past the limit to tell a body of exactly limit bytes from a longer one
+                truncated = `in`.read() >= 0
+            }
+            return true
+        }
+    }
+}
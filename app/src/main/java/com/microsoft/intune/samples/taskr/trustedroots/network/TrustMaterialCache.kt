@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network
+
+import com.microsoft.intune.mam.client.app.MAMTrustedRootCertsManager
+import com.microsoft.intune.mam.client.notification.MAMNotificationReceiver
+import com.microsoft.intune.mam.policy.notification.MAMNotification
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry
+import java.security.cert.X509Certificate
+import java.util.logging.Logger
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLSocketFactory
+import javax.net.ssl.X509TrustManager
+
+/**
+ * The SSLContext and trust manager built from one set of MAM trusted roots.
+ */
+class TrustMaterial(val sslContext: SSLContext, val trustManager: X509TrustManager) {
+
+    /**
+     * The roots the trust manager accepts, used to tell whether a reload changed anything.
+     */
+    val roots: Set<X509Certificate> = trustManager.acceptedIssuers.toSet()
+
+    /**
+     * The socket factory of sslContext. Sockets from it share the context's TLS session cache.
+     */
+    val socketFactory: SSLSocketFactory
+        get() = sslContext.socketFactory
+}
+
+/**
+ * Builds the trust material for MAM's trusted roots once and hands it out until the policy may
+ * have changed, rather than having MAM read and parse the certificates again for every client.
+ *
+ * Register the cache for REFRESH_POLICY, MANAGEMENT_REMOVED and MAM_ENROLLMENT_RESULT
+ * notifications. The material is reloaded on the next [get] after one of them; if the roots turn
+ * out to be the same, the material already handed out is kept, so clients built on it stay valid.
+ */
+class TrustMaterialCache internal constructor(private val loader: Loader) : MAMNotificationReceiver {
+
+    /**
+     * Builds the trust material when it is not cached.
+     */
+    fun interface Loader {
+        fun load(): TrustMaterial
+    }
+
+    @Volatile
+    private var material: TrustMaterial? = null
+
+    @Volatile
+    private var stale = false
+
+    /**
+     * Gets the trust material, loading it the first time and after the policy may have changed.
+     * Loading reads the trust store, so call this off the main thread.
+     *
+     * @return the trust material for MAM's trusted roots.
+     */
+    fun get(): TrustMaterial {
+        val current = material
+        if (current != null && !stale) {
+            HITS.increment()
+            return current
+        }
+        return reload()
+    }
+
+    /**
+     * Marks the trust material as possibly out of date.
+     */
+    fun invalidate() {
+        INVALIDATIONS.increment()
+        stale = true
+    }
+
+    override fun onReceive(notification: MAMNotification): Boolean {
+        LOGGER.info("Trusted roots may have changed: ${notification.type}")
+        invalidate()
+        return true
+    }
+
+    @Synchronized
+    private fun reload(): TrustMaterial {
+        val current = material
+        if (current != null && !stale) {
+            // Another thread reloaded it while this one waited
+            return current
+        }
+        // Cleared before loading, so an invalidation which races with the load is not lost
+        stale = false
+        MISSES.increment()
+        val loaded = try {
+            loader.load()
+        } catch (ex: Throwable) {
+            // The old material must not be handed out as if it were fresh
+            stale = true
+            throw ex
+        }
+        val result = if (current != null && current.roots == loaded.roots) current else loaded
+        if (result !== current) {
+            LOGGER.info("Loaded ${result.roots.size} trusted roots")
+        }
+        material = result
+        return result
+    }
+
+    companion object {
+        private val LOGGER = Logger.getLogger(TrustMaterialCache::class.java.name)
+
+        private val HITS = MetricsRegistry.counter("trust.cache.hits")
+        private val MISSES = MetricsRegistry.counter("trust.cache.misses")
+        private val INVALIDATIONS = MetricsRegistry.counter("trust.cache.invalidations")
+
+        /**
+         * The app's trust material cache, which loads the trusted roots from the MAM SDK.
+         */
+        @JvmStatic
+        val instance: TrustMaterialCache by lazy {
+            TrustMaterialCache {
+                TrustMaterial(
+                    MAMTrustedRootCertsManager.createSSLContext(null, null),
+                    MAMTrustedRootCertsManager.createX509TrustManagers(null).first() as X509TrustManager
+                )
+            }
+        }
+    }
+}
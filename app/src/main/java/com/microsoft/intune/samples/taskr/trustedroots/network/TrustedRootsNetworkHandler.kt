@@ -5,60 +5,150 @@
 
 package com.microsoft.intune.samples.taskr.trustedroots.network
 
-import com.microsoft.intune.mam.client.app.MAMTrustedRootCertsManager
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
 import okhttp3.*
 import org.apache.hc.client5.http.classic.methods.HttpGet
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient
-import org.apache.hc.client5.http.impl.classic.HttpClients
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder
-import org.apache.hc.client5.http.io.HttpClientConnectionManager
-import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory
-import org.apache.hc.core5.http.io.entity.EntityUtils
-import javax.net.ssl.X509TrustManager
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
-import kotlin.coroutines.suspendCoroutine
+import org.apache.hc.core5.http.ContentType
+import org.apache.hc.core5.http.HttpEntity
+import org.apache.hc.core5.io.CloseMode
+import java.io.IOException
+import java.net.MalformedURLException
+import java.net.URI
+import java.net.UnknownServiceException
+import java.nio.charset.Charset
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.net.ssl.SSLException
+import kotlin.coroutines.coroutineContext
+import kotlin.random.Random
 
 /**
  * A class that handles network requests.
+ *
+ * Requests share long-lived clients, so connections, HTTP/2 streams and TLS sessions are reused
+ * from one request to the next. There is a default client and a trusted roots client for each
+ * library. The trusted roots clients are rebuilt only when MAM's set of trusted roots changes, as
+ * reported by [TrustMaterialCache]. Every attempt at a request looks its client up again, so a
+ * retry after the roots change uses the new ones.
  */
 object TrustedRootsNetworkHandler {
 
+    private val LOGGER = Logger.getLogger(TrustedRootsNetworkHandler::class.java.name)
+
+    // The longest a request may take, retries included
+    private val TOTAL_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60)
+    private const val MAX_ATTEMPTS = 3
+    private const val INITIAL_BACKOFF_MS = 250L
+
+    private val CLIENT_BUILDS = MetricsRegistry.counter("http.client.builds")
+    private val RETRIES = MetricsRegistry.counter("http.retries")
+
+    /**
+     * The clients that trust MAM's trusted roots, along with the trust material they were built from.
+     *
+     * Requests lease the clients while they use them. Once newer clients replace them, the Apache
+     * client is closed when its last lease is released, so no request has its connection pool shut
+     * down under it.
+     */
+    private class TrustedClients(
+        val material: TrustMaterial,
+        val okHttp: OkHttpClient,
+        val apache: CloseableHttpClient
+    ) {
+        private var leases = 0
+        private var retired = false
+
+        @Synchronized
+        fun lease(): TrustedClients {
+            check(!retired) { "Trusted roots clients have been replaced" }
+            leases++
+            return this
+        }
+
+        @Synchronized
+        fun release() {
+            leases--
+            closeIfUnused()
+        }
+
+        @Synchronized
+        fun retire() {
+            retired = true
+            closeIfUnused()
+        }
+
+        private fun closeIfUnused() {
+            if (retired && leases == 0) {
+                apache.close(CloseMode.GRACEFUL)
+            }
+        }
+    }
+
+    private val defaultOkHttpClient: OkHttpClient by lazy {
+        CLIENT_BUILDS.increment()
+        HttpClientFactory.okHttp()
+    }
+
+    private val defaultApacheClient: CloseableHttpClient by lazy {
+        CLIENT_BUILDS.increment()
+        HttpClientFactory.apache(null)
+    }
+
+    @Volatile
+    private var trustedClients: TrustedClients? = null
+
     /**
      * Submits an HTTP request using OkHttpClient. The client will use trusted certs if usingTrustedCerts is true.
      *
      * @param usingTrustedCerts Whether or not to use trusted certs.
      * @param requestUrl The URL to submit the request to.
+     * @param maxBodyBytes The most bytes of the response body to read.
+     * @param listener Told how much of the response body has been read, or null.
      */
-    suspend fun submitOkHttpClientRequest(usingTrustedCerts: Boolean, requestUrl: String) : Response {
-        val client = if (usingTrustedCerts) {
-            OkHttpClient.Builder()
-                .sslSocketFactory(
-                    MAMTrustedRootCertsManager.createSSLSocketFactory(null, null),
-                    MAMTrustedRootCertsManager.createX509TrustManagers(null).first() as X509TrustManager
-                )
-                .build()
-        } else {
-            OkHttpClient.Builder()
-                .build()
-        }
-
+    suspend fun submitOkHttpClientRequest(
+        usingTrustedCerts: Boolean,
+        requestUrl: String,
+        maxBodyBytes: Long,
+        listener: ResponseBodyReader.ProgressListener?
+    ) : HttpResult {
         val request: Request = Request.Builder()
             .url(requestUrl)
             .build()
 
-        return suspendCoroutine { continuation ->
-            client.newCall(request).enqueue(object : Callback {
-                override fun onFailure(call: Call, e: java.io.IOException) {
-                    continuation.resumeWithException(e)
+        return withTimeout(TOTAL_TIMEOUT_MS) {
+            withRetries {
+                // Building a client reads the trust store, so keep it off the main thread
+                val client = withContext(Dispatchers.IO) {
+                    if (usingTrustedCerts) getTrustedClients().okHttp else defaultOkHttpClient
                 }
-
-                override fun onResponse(call: Call, response: Response) {
-                    continuation.resume(response)
+                val call = client.newCall(request)
+                runCancellable({ call.cancel() }) {
+                    val start = System.nanoTime()
+                    // Closing the response part way through the body drops the rest of it
+                    call.execute().use { response ->
+                        val timeToFirstByteNanos = elapsedNanos(start)
+                        val body = response.body?.let {
+                            ResponseBodyReader.read(
+                                it.byteStream(),
+                                it.contentType()?.charset(Charsets.UTF_8) ?: Charsets.UTF_8,
+                                maxBodyBytes,
+                                listener
+                            )
+                        } ?: ResponseBodyReader.EMPTY
+                        HttpResult("${response.code} ${response.message}", body, timeToFirstByteNanos, elapsedNanos(start))
+                    }
                 }
-            })
+            }
         }
     }
 
@@ -67,31 +157,141 @@ object TrustedRootsNetworkHandler {
      *
      * @param usingTrustedCerts Whether or not to use trusted certs.
      * @param requestUrl The URL to submit the request to.
+     * @param maxBodyBytes The most bytes of the response body to read.
+     * @param listener Told how much of the response body has been read, or null.
+     */
+    suspend fun submitApacheHttpClient5Request(
+        usingTrustedCerts: Boolean,
+        requestUrl: String,
+        maxBodyBytes: Long,
+        listener: ResponseBodyReader.ProgressListener?
+    ) : HttpResult {
+        val uri = URI.create(requestUrl)
+
+        return withTimeout(TOTAL_TIMEOUT_MS) {
+            withRetries {
+                val trusted = withContext(Dispatchers.IO) {
+                    if (usingTrustedCerts) leaseTrustedClients() else null
+                }
+                try {
+                    val httpclient = trusted?.apache ?: withContext(Dispatchers.IO) { defaultApacheClient }
+                    // A request can't be sent again once it has been cancelled, so each attempt has its own
+                    val httpGet = HttpGet(uri)
+                    runCancellable({ httpGet.cancel() }) {
+                        val start = System.nanoTime()
+                        // Closing the response hands its connection back to the pool
+                        httpclient.execute(httpGet).use { response ->
+                            val timeToFirstByteNanos = elapsedNanos(start)
+                            val entity = response.entity
+                            val body = if (entity == null) {
+                                ResponseBodyReader.EMPTY
+                            } else {
+                                ResponseBodyReader.read(entity.content, charsetOf(entity), maxBodyBytes, listener)
+                            }
+                            if (body.truncated) {
+                                // Closing the stream would read the rest of the body to keep the connection
+                                httpGet.cancel()
+                            }
+                            HttpResult("${response.code} ${response.reasonPhrase}", body, timeToFirstByteNanos, elapsedNanos(start))
+                        }
+                    }
+                } finally {
+                    trusted?.release()
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs attempt, and again after a growing delay if it fails in a way a second try could fix.
+     * Requests are all GETs, so sending one twice is safe.
+     */
+    private suspend fun <T> withRetries(attempt: suspend () -> T): T {
+        var backoffMs = INITIAL_BACKOFF_MS
+        repeat(MAX_ATTEMPTS - 1) {
+            try {
+                return attempt()
+            } catch (ex: IOException) {
+                // A cancelled call fails with an IOException too; that must not be retried
+                coroutineContext.ensureActive()
+                if (!isRetryable(ex)) {
+                    throw ex
+                }
+                RETRIES.increment()
+                LOGGER.log(Level.INFO, "Request failed, trying again in $backoffMs ms", ex)
+                // Jitter keeps clients that failed together from retrying together
+                delay(backoffMs + Random.nextLong(backoffMs / 2 + 1))
+                backoffMs *= 2
+            }
+        }
+        return attempt()
+    }
+
+    /**
+     * Certificate and URL problems fail the same way every time, so only other I/O errors, such
+     * as a dropped connection or a timeout, are worth another try.
+     */
+    private fun isRetryable(ex: IOException): Boolean {
+        return ex !is SSLException && ex !is MalformedURLException && ex !is UnknownServiceException
+    }
+
+    /**
+     * Runs block on an I/O thread. Blocking socket reads don't notice a cancelled coroutine, so if
+     * the calling coroutine is cancelled, cancel is called to abort the request block is making.
      */
-    suspend fun submitApacheHttpClient5Request(usingTrustedCerts: Boolean, requestUrl: String) : String {
-        val httpGet = HttpGet(requestUrl)
-        val httpclient: CloseableHttpClient = if (!usingTrustedCerts) {
-            HttpClients.createDefault()
-        } else {
-            val connectionManager: HttpClientConnectionManager =
-                PoolingHttpClientConnectionManagerBuilder.create()
-                    .setSSLSocketFactory(
-                        SSLConnectionSocketFactory(MAMTrustedRootCertsManager.createSSLContext(null, null))
-                    )
-                    .build()
-
-            HttpClients.custom()
-                .setConnectionManager(connectionManager)
-                .build()
+    private suspend fun <T> runCancellable(cancel: () -> Unit, block: () -> T): T = coroutineScope {
+        val work = async(Dispatchers.IO) { block() }
+        try {
+            work.await()
+        } catch (ex: CancellationException) {
+            cancel()
+            throw ex
         }
-        return withContext(Dispatchers.IO) {
-            val response = httpclient.execute(httpGet)
-            val responseStatus = "Status: ${response.code} ${response.reasonPhrase}"
-            val entity = response.entity
-            val responseBody = EntityUtils.toString(entity)
-            EntityUtils.consume(entity)
-            response.close()
-            "$responseStatus\n$responseBody"
+    }
+
+    /**
+     * Gets the trusted roots clients, building them the first time and again whenever the
+     * [TrustMaterialCache] hands out new trust material.
+     */
+    @Synchronized
+    private fun getTrustedClients(): TrustedClients {
+        val material = TrustMaterialCache.instance.get()
+        val current = trustedClients
+        if (current != null && current.material === material) {
+            return current
+        }
+
+        CLIENT_BUILDS.increment()
+        LOGGER.info("Building trusted roots clients for ${material.roots.size} roots")
+        val okHttp = HttpClientFactory.okHttp(defaultOkHttpClient, material)
+        val apache = HttpClientFactory.apache(material)
+        val clients = TrustedClients(material, okHttp, apache)
+        trustedClients = clients
+
+        if (current != null) {
+            /* Connections made with the old roots must not be handed out again. The pool is
+             * shared, so this drops idle default connections too, which is rare enough not to
+             * matter. Calls already running keep their connections. */
+            current.okHttp.connectionPool.evictAll()
+            current.retire()
         }
+        return clients
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the trusted roots clients and leases them, so they stay open until released.
+     */
+    @Synchronized
+    private fun leaseTrustedClients(): TrustedClients = getTrustedClients().lease()
+
+    private fun charsetOf(entity: HttpEntity): Charset {
+        return try {
+            entity.contentType?.let { ContentType.parse(it) }?.charset ?: Charsets.UTF_8
+        } catch (ex: IllegalArgumentException) {
+            // A malformed or unsupported charset
+            Charsets.UTF_8
+        }
+    }
+
+    private fun elapsedNanos(start: Long): Long = System.nanoTime() - start
+}
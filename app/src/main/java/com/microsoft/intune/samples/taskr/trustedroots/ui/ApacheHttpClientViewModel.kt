@@ -5,39 +5,27 @@
 
 package com.microsoft.intune.samples.taskr.trustedroots.ui
 
-import androidx.lifecycle.viewModelScope
+import com.microsoft.intune.samples.taskr.trustedroots.TrustedRootsClientTypes
+import com.microsoft.intune.samples.taskr.trustedroots.network.HttpResult
+import com.microsoft.intune.samples.taskr.trustedroots.network.ResponseBodyReader
 import com.microsoft.intune.samples.taskr.trustedroots.network.TrustedRootsNetworkHandler
-import kotlinx.coroutines.launch
-import java.io.IOException
-import java.net.MalformedURLException
-import java.util.logging.Level
-import java.util.logging.Logger
 
 /**
  * A [TrustedRootsHttpViewModel] that handles sending requests using Apache Http Client.
  */
-class ApacheHttpClientViewModel : TrustedRootsHttpViewModel() {
+class ApacheHttpClientViewModel : TrustedRootsHttpViewModel(TrustedRootsClientTypes.APACHEHTTP) {
 
-    private val LOGGER = Logger.getLogger(OkHttpClientViewModel::class.java.name)
-
-    override fun submitRequest() {
-        response.postValue("")
-
-        viewModelScope.launch {
-            try {
-               val result = TrustedRootsNetworkHandler.submitApacheHttpClient5Request(
-                    trustCustomCerts.value ?: false,
-                    requestUrl.value ?: ""
-                )
-                response.postValue(result)
-            } catch (ex: Exception) {
-                when (ex) {
-                    is MalformedURLException, is IllegalArgumentException, is IOException -> {
-                        response.postValue(ex.message)
-                        LOGGER.log(Level.SEVERE, ex.message, ex)
-                    }
-                }
-            }
-        }
+    override suspend fun send(
+        usingTrustedCerts: Boolean,
+        requestUrl: String,
+        maxBodyBytes: Long,
+        listener: ResponseBodyReader.ProgressListener
+    ): HttpResult {
+        return TrustedRootsNetworkHandler.submitApacheHttpClient5Request(
+            usingTrustedCerts,
+            requestUrl,
+            maxBodyBytes,
+            listener
+        )
     }
-}
\ No newline at end of file
+}
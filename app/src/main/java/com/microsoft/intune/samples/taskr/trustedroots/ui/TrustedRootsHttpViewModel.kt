@@ -7,18 +7,164 @@ package com.microsoft.intune.samples.taskr.trustedroots.ui
 
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
+import androidx.lifecycle.viewModelScope
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry
+import com.microsoft.intune.samples.taskr.trustedroots.TrustedRootsClientTypes
+import com.microsoft.intune.samples.taskr.trustedroots.network.HttpResult
+import com.microsoft.intune.samples.taskr.trustedroots.network.ResponseBodyReader
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.security.GeneralSecurityException
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
 
 /**
  * Base class for the view models used by the HTTP clients.
+ *
+ * Only up to maxBodyKb kilobytes of each response body are read, and no more than [MAX_BODY_KB],
+ * so a large response can't run the app out of memory or stall the UI. While the body is read,
+ * the amount read so far and the end of it are shown.
+ *
+ * Only one request is in flight at a time. Sending a different request cancels the one before,
+ * which closes its connection, while sending the same one again just waits for it. Requests
+ * still in flight when the view model is cleared are cancelled along with viewModelScope.
  */
-abstract class TrustedRootsHttpViewModel : ViewModel() {
+abstract class TrustedRootsHttpViewModel(clientType: TrustedRootsClientTypes) : ViewModel() {
 
     val requestUrl: MutableLiveData<String> = MutableLiveData()
     val response: MutableLiveData<String> = MutableLiveData()
+    val stats: MutableLiveData<String> = MutableLiveData()
+    val maxBodyKb: MutableLiveData<String> = MutableLiveData(DEFAULT_MAX_BODY_KB.toString())
     val trustCustomCerts: MutableLiveData<Boolean> = MutableLiveData(false)
 
+    private val LOGGER = Logger.getLogger(this::class.java.name)
+
+    /**
+     * What was asked for, so that the same request sent twice can be told apart from a new one.
+     */
+    private data class RequestKey(val url: String, val usingTrustedCerts: Boolean, val maxBodyBytes: Long)
+
+    private var inFlight: Job? = null
+    private var inFlightKey: RequestKey? = null
+
+    private val metricsName = clientType.name.lowercase(Locale.US)
+    private val timeToFirstByte = MetricsRegistry.histogram("http.$metricsName.ttfb")
+    private val total = MetricsRegistry.histogram("http.$metricsName.total")
+    private val bytesRead = MetricsRegistry.counter("http.$metricsName.bytes")
+    private val coalesced = MetricsRegistry.counter("http.$metricsName.coalesced")
+    private val cancelled = MetricsRegistry.counter("http.$metricsName.cancelled")
+
+    /**
+     * Submits the request, unless the same request is still in flight.
+     */
+    fun submitRequest() {
+        val key = RequestKey(requestUrl.value ?: "", trustCustomCerts.value ?: false, maxBodyBytes())
+        val current = inFlight
+        if (current != null && current.isActive) {
+            if (key == inFlightKey) {
+                coalesced.increment()
+                return
+            }
+            cancelled.increment()
+            current.cancel()
+        }
+
+        response.postValue("")
+        stats.postValue("")
+        inFlightKey = key
+        inFlight = viewModelScope.launch {
+            // postValue only hands the latest value to the UI, so a fast response does not queue up redraws
+            val listener = ResponseBodyReader.ProgressListener { bytes, head ->
+                if (isActive) {
+                    response.postValue("Read ${bytes / 1024} KB so far\n$head...")
+                }
+            }
+            try {
+                showResult(send(key.usingTrustedCerts, key.url, key.maxBodyBytes, listener))
+            } catch (ex: TimeoutCancellationException) {
+                response.postValue("Timed out: ${ex.message}")
+                LOGGER.log(Level.WARNING, ex.message, ex)
+            } catch (ex: CancellationException) {
+                // Replaced by a newer request, or the view model was cleared
+                throw ex
+            } catch (ex: IOException) {
+                showError(ex)
+            } catch (ex: IllegalArgumentException) {
+                // A malformed URL
+                showError(ex)
+            } catch (ex: IllegalStateException) {
+                // A client which could not be built or was closed under the request
+                showError(ex)
+            } catch (ex: GeneralSecurityException) {
+                // MAM could not build the trust material for its trusted roots
+                showError(ex)
+            }
+        }
+    }
+
+    /**
+     * Sends a request and reads its response. This method should be implemented by the child class.
+     *
+     * @param usingTrustedCerts Whether or not to use trusted certs.
+     * @param requestUrl The URL to submit the request to.
+     * @param maxBodyBytes The most bytes of the response body to read.
+     * @param listener Told how much of the response body has been read.
+     */
+    protected abstract suspend fun send(
+        usingTrustedCerts: Boolean,
+        requestUrl: String,
+        maxBodyBytes: Long,
+        listener: ResponseBodyReader.ProgressListener
+    ): HttpResult
+
+    /**
+     * @return the most bytes of a response body to read, from maxBodyKb, no more than [MAX_BODY_KB].
+     */
+    private fun maxBodyBytes(): Long {
+        val kb = maxBodyKb.value?.trim()?.toLongOrNull()?.takeIf { it > 0 } ?: DEFAULT_MAX_BODY_KB
+        return kb.coerceAtMost(MAX_BODY_KB) * 1024
+    }
+
     /**
-     * Submits the request. This method should be implemented by the child class.
+     * Shows why a request failed.
      */
-    abstract fun submitRequest()
-}
\ No newline at end of file
+    private fun showError(ex: Exception) {
+        response.postValue(ex.message ?: ex.toString())
+        LOGGER.log(Level.SEVERE, ex.message, ex)
+    }
+
+    /**
+     * Shows a finished response and how long it took, and records its timings.
+     */
+    private fun showResult(result: HttpResult) {
+        val body = result.body
+        timeToFirstByte.record(result.timeToFirstByteNanos)
+        total.record(result.totalNanos)
+        bytesRead.add(body.bytes)
+
+        val cutOff = if (body.truncated) "\n[Cut off after ${body.bytes / 1024} KB]" else ""
+        response.postValue("Status: ${result.status} \n ${body.text}$cutOff")
+        stats.postValue(String.format(Locale.US, "%d bytes, first byte after %d ms, done after %d ms",
+            body.bytes,
+            TimeUnit.NANOSECONDS.toMillis(result.timeToFirstByteNanos),
+            TimeUnit.NANOSECONDS.toMillis(result.totalNanos)))
+    }
+
+    companion object {
+        /**
+         * The default limit on how much of a response body is read, in kilobytes.
+         */
+        const val DEFAULT_MAX_BODY_KB = 64L
+
+        /**
+         * The most of a response body that is ever read, in kilobytes, whatever maxBodyKb says.
+         */
+        const val MAX_BODY_KB = 1024L
+    }
+}
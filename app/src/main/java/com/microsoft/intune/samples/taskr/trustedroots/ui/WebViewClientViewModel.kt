@@ -18,14 +18,19 @@ class WebViewClientViewModel : ViewModel() {
     val requestUrl: MutableLiveData<String> = MutableLiveData()
     val trustCustomCerts: MutableLiveData<Boolean> = MutableLiveData(false)
 
+    /* MAM checks the trusted roots itself when a WebView reports an SSL error, and takes no trust
+     * material from the app, so the most that can be shared is the client. */
+    private val trustedRootsClient: WebViewClient by lazy { MAMCertTrustWebViewClient() }
+    private val defaultClient: WebViewClient by lazy { WebViewClient() }
+
     /**
      * Returns the appropriate WebViewClient based on the value of trustCustomCerts.
      */
     fun getWebViewClient(): WebViewClient {
         return if (trustCustomCerts.value == true) {
-            MAMCertTrustWebViewClient()
+            trustedRootsClient
         } else {
-            WebViewClient()
+            defaultClient
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.utils;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+import com.microsoft.intune.samples.taskr.room.RoomManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compacts the task database once a day, while the device is idle and charging.
+ * See {@link RoomManager#compact}. If the device stops being idle, the work stops between two
+ * steps and is tried again later.
+ */
+public class CompactionJobService extends JobService {
+    private static final Logger LOGGER = Logger.getLogger(CompactionJobService.class.getName());
+
+    private static final int JOB_ID = 1001;
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    private volatile boolean mStopped;
+
+    /**
+     * Schedules the daily compaction, unless it is scheduled already.
+     *
+     * @param context a Context used to get the JobScheduler
+     */
+    public static void schedule(@NonNull final Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            // Scheduling it again would restart its period
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CompactionJobService.class))
+                .setPeriodic(PERIOD_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        Thread thread = new Thread(() -> {
+            boolean reschedule = false;
+            try {
+                RoomManager.compact(() -> mStopped);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to compact the task database", e);
+                reschedule = true;
+            }
+            jobFinished(params, reschedule);
+        }, "taskr-compact");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        mStopped = true;
+        // Try again the next time the device is idle
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.utils;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.Observer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A piece of export work, such as writing a document, that runs on a background executor and
+ * posts only its final result back to the main thread.
+ *
+ * The job is tied to a LifecycleOwner. If the owner is destroyed before the job finishes, the
+ * job is cancelled and its result is never delivered.
+ *
+ * @param <T> the type of the job's result
+ */
+public final class ExportJob<T> implements LifecycleEventObserver {
+    private static final Logger LOGGER = Logger.getLogger(ExportJob.class.getName());
+
+    /**
+     * The work done by a job. Runs on a background thread.
+     *
+     * @param <T> the type of the work's result
+     */
+    public interface Work<T> {
+        /**
+         * Does the work. Long-running work should check signal regularly, and stop by throwing
+         * OperationCanceledException once it has been cancelled.
+         *
+         * @param signal cancelled when the job is
+         * @return the result to deliver, null if the work failed
+         * @throws Exception if the work failed, in which case null is delivered
+         */
+        @WorkerThread
+        @Nullable
+        T run(@NonNull CancellationSignal signal) throws Exception;
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CancellationSignal mSignal = new CancellationSignal();
+    private final LifecycleOwner mOwner;
+    private final Observer<T> mOnResult;
+
+    private ExportJob(@NonNull final LifecycleOwner owner, @NonNull final Observer<T> onResult) {
+        mOwner = owner;
+        mOnResult = onResult;
+    }
+
+    /**
+     * Starts running work on executor.
+     *
+     * @param owner    the job is cancelled when owner is destroyed
+     * @param executor the executor to run work on
+     * @param work     the work to do
+     * @param onResult called on the main thread with the result of work, unless the job was
+     *                 cancelled first
+     * @param <T>      the type of the result
+     * @return the running job
+     */
+    @MainThread
+    public static <T> ExportJob<T> start(@NonNull final LifecycleOwner owner,
+                                         @NonNull final Executor executor,
+                                         @NonNull final Work<T> work,
+                                         @NonNull final Observer<T> onResult) {
+        final ExportJob<T> job = new ExportJob<>(owner, onResult);
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            job.mSignal.cancel();
+            return job;
+        }
+
+        owner.getLifecycle().addObserver(job);
+        try {
+            executor.execute(() -> job.run(work));
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Export could not be started", e);
+            job.deliver(null);
+        }
+        return job;
+    }
+
+    /**
+     * Cancels the job. Its result will not be delivered.
+     */
+    public void cancel() {
+        mSignal.cancel();
+    }
+
+    /**
+     * @return true if the job has been cancelled
+     */
+    public boolean isCancelled() {
+        return mSignal.isCanceled();
+    }
+
+    @Override
+    public void onStateChanged(@NonNull final LifecycleOwner source,
+                               @NonNull final Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            cancel();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+    @WorkerThread
+    private void run(@NonNull final Work<T> work) {
+        T result = null;
+        try {
+            mSignal.throwIfCanceled();
+            result = work.run(mSignal);
+        } catch (OperationCanceledException e) {
+            LOGGER.info("Export cancelled");
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Export failed", e);
+        }
+        deliver(result);
+    }
+
+    private void deliver(@Nullable final T result) {
+        mMainHandler.post(() -> {
+            mOwner.getLifecycle().removeObserver(this);
+            if (!isCancelled()) {
+                mOnResult.onChanged(result);
+            }
+        });
+    }
+}
@@ -9,62 +9,47 @@ import android.app.Activity;
 import android.content.Context;
 import android.print.PrintDocumentAdapter;
 import android.print.PrintManager;
-import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import androidx.annotation.NonNull;
-import androidx.lifecycle.LifecycleOwner;
 
 import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.room.DatabaseLease;
 import com.microsoft.intune.samples.taskr.room.RoomManager;
 
 /**
- * Class that will print the results of a call to RoomManager.
+ * Class that will print the tasks stored by RoomManager.
  *
  * Will automatically be blocked by MAM if necessary.
  */
 public class Printer {
     private final Activity mActivity;
-    private final LifecycleOwner mLifecycleOwner;
 
-    public Printer(@NonNull final Activity activity, @NonNull final LifecycleOwner lifecycleOwner) {
+    public Printer(@NonNull final Activity activity) {
         mActivity = activity;
-        mLifecycleOwner = lifecycleOwner;
     }
 
     /**
      * The only ways to print from an Android app are to 1) print a photo, 2) print a website, or
-     * 3) manually draw the document in a PDF. Making an HTML document to print is the easiest
-     * and most appropriate option for this app.
+     * 3) manually draw the document in a PDF. Drawing the PDF ourselves lets the tasks be read
+     * from the database a page at a time, and only for the pages that are actually printed.
      */
     public void printTasks() {
-        // Set up a WebView to print automatically
-        WebView webView = new WebView(mActivity);
-        webView.setWebViewClient(new WebViewClient() {
-            public boolean shouldOverrideUrlLoading(final WebView view, final String url) {
-                return false;
-            }
-
-            @Override
-            public void onPageFinished(final WebView view, final String url) {
-                createWebPrintJob(view);
-            }
-        });
-
-        // Set the content of the view to be the HTML document we want to print
-        RoomManager.getTaskDocument(mActivity.getApplicationContext(), mLifecycleOwner, false,
-                (String html) -> webView.loadData(html, "text/HTML", "UTF-8"));
-    }
-
-    private void createWebPrintJob(final WebView webView) {
         // Create the printing resources
         PrintManager printManager =
                 (PrintManager) mActivity.getSystemService(Context.PRINT_SERVICE);
-        PrintDocumentAdapter printAdapter = webView.createPrintDocumentAdapter();
+        if (printManager == null) {
+            return;
+        }
+        // Released by the adapter once the print job finishes
+        DatabaseLease lease = RoomManager.leaseDatabase();
+        if (lease == null) {
+            // The database is being handed to the signed in account; there is nothing to print yet
+            return;
+        }
+        PrintDocumentAdapter printAdapter = new TaskPrintDocumentAdapter(mActivity, lease,
+                RoomManager.getExecutors().readers());
 
         // Create the print job with name jobName
         String jobName = mActivity.getString(R.string.print_name);
-        if (printManager != null) {
-            printManager.print(jobName, printAdapter, null);
-        }
+        printManager.print(jobName, printAdapter, null);
     }
 }
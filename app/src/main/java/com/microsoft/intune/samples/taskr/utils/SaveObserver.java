@@ -24,17 +24,15 @@ import androidx.lifecycle.Observer;
 import com.microsoft.intune.samples.taskr.R;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.List;
 
 /**
- * An observer to be called when a String is ready to be saved to a user's device.
+ * An observer to be called when a document has been saved to a user's device.
  *
  * Assumes that calling code has checked on the MAM policy to confirm that this is allowed. For example,
  * see {@link com.microsoft.intune.samples.taskr.fragments.TasksFragment#saveListener}.
  */
-public class SaveObserver implements Observer<String> {
+public class SaveObserver implements Observer<File> {
     private final Context mContext;
     private final Activity mActivity;
     private final int mRequestCode;
@@ -47,36 +45,29 @@ public class SaveObserver implements Observer<String> {
         mRequestCode = requestCode;
     }
 
-    @Override
-    public void onChanged(@Nullable final String doc) {
-        if (doc == null) {
-            Toast.makeText(mContext, R.string.err_no_body, Toast.LENGTH_LONG).show();
-            return;
-        }
-        // Confirm we're allowed to save to this device, ask for permission if not
-        confirmWritePermission();
-        // Get the default location for the export
-        File exportFile = new File(
+    /**
+     * Gets the default location for the export.
+     *
+     * @return the file tasks are saved to
+     */
+    public static File getExportFile() {
+        return new File(
                 Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS),
                 "tasks.csv");
+    }
 
-        // Now try to write the document to their device
-        boolean didWrite = true;
-        try (final PrintWriter writer = new PrintWriter(exportFile)) {
-            writer.append(doc);
-            writer.flush();
-        } catch (IOException e) {
-            didWrite = false;
-            Toast.makeText(mContext, e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
+    @Override
+    public void onChanged(@Nullable final File exportFile) {
+        if (exportFile == null) {
+            Toast.makeText(mContext, R.string.err_no_body, Toast.LENGTH_LONG).show();
+            return;
         }
 
-        // And try to open it. Will be blocked by MAM if necessary
-        if (didWrite) {
-            Toast.makeText(mContext,
-                    mContext.getString(R.string.save_success, exportFile.getPath()),
-                    Toast.LENGTH_SHORT).show();
-            openFile(exportFile);
-        }
+        // The document has been written, so try to open it. Will be blocked by MAM if necessary
+        Toast.makeText(mContext,
+                mContext.getString(R.string.save_success, exportFile.getPath()),
+                Toast.LENGTH_SHORT).show();
+        openFile(exportFile);
     }
 
     /**
@@ -103,8 +94,9 @@ public class SaveObserver implements Observer<String> {
 
     /**
      * Confirm we can write the user's device, and if we currently can't, ask to.
+     * Should be called before the document is written.
      */
-    private void confirmWritePermission() {
+    public void confirmWritePermission() {
         if (PermissionChecker.checkSelfPermission(mContext,
                 Manifest.permission.WRITE_EXTERNAL_STORAGE) != PermissionChecker.PERMISSION_GRANTED) {
             ActivityCompat.requestPermissions(mActivity,
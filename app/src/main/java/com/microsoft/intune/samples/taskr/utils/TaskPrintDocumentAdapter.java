@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.utils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.microsoft.intune.samples.taskr.R;
+import com.microsoft.intune.samples.taskr.metrics.Counter;
+import com.microsoft.intune.samples.taskr.metrics.LatencyHistogram;
+import com.microsoft.intune.samples.taskr.metrics.MetricsRegistry;
+import com.microsoft.intune.samples.taskr.room.DatabaseLease;
+import com.microsoft.intune.samples.taskr.room.Task;
+import com.microsoft.intune.samples.taskr.room.TaskDao;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A PrintDocumentAdapter that draws Tasks straight from the database onto PDF pages. Only the
+ * pages the print framework asks for are read and drawn, a page of Tasks at a time, so printing
+ * a large list needs neither a WebView nor the whole document in memory. The database is leased
+ * for as long as the print job lasts, so it stays open even if another account's replaces it.
+ */
+public class TaskPrintDocumentAdapter extends PrintDocumentAdapter {
+    private static final Logger LOGGER = Logger.getLogger(TaskPrintDocumentAdapter.class.getName());
+
+    private static final int POINTS_PER_INCH = 72;
+    private static final int MILS_PER_INCH = 1000;
+    private static final float MARGIN = 36f;
+    private static final float TEXT_SIZE = 10f;
+    private static final float ROW_HEIGHT = 14f;
+    private static final float ID_COLUMN_WIDTH = 72f;
+
+    private static final LatencyHistogram LAYOUT_LATENCY = MetricsRegistry.histogram("print.layout");
+    private static final LatencyHistogram WRITE_LATENCY = MetricsRegistry.histogram("print.write");
+    private static final Counter PAGES_PRINTED = MetricsRegistry.counter("print.pages");
+    private static final Counter PRINT_FAILURES = MetricsRegistry.counter("print.failures");
+
+    private final Context mContext;
+    private final DatabaseLease mLease;
+    private final TaskDao mDao;
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mHeaderPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+    private PrintAttributes mAttributes;
+    private int mRowsPerPage;
+    private int mPageCount;
+
+    /**
+     * @param context  a context used to create the PDF and read resource strings
+     * @param lease    a lease on the database the Tasks are read from, released when the print
+     *                 job finishes
+     * @param executor the executor database reads and drawing run on
+     */
+    public TaskPrintDocumentAdapter(@NonNull final Context context, @NonNull final DatabaseLease lease,
+                                    @NonNull final Executor executor) {
+        mContext = context.getApplicationContext();
+        mLease = lease;
+        mDao = lease.getTaskDao();
+        mExecutor = executor;
+        mTextPaint.setTextSize(TEXT_SIZE);
+        mHeaderPaint.setTextSize(TEXT_SIZE);
+        mHeaderPaint.setFakeBoldText(true);
+    }
+
+    @Override
+    public void onLayout(final PrintAttributes oldAttributes, final PrintAttributes newAttributes,
+                         final CancellationSignal cancellationSignal,
+                         final LayoutResultCallback callback, final Bundle extras) {
+        if (cancellationSignal.isCanceled()) {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        final boolean changed = !newAttributes.equals(oldAttributes);
+        mAttributes = newAttributes;
+        PrintAttributes.MediaSize mediaSize = newAttributes.getMediaSize();
+        float pageHeight = mediaSize == null
+                ? 11 * POINTS_PER_INCH
+                : toPoints(mediaSize.getHeightMils());
+        // Leave room for the margins and the header row
+        mRowsPerPage = Math.max(1, (int) ((pageHeight - 2 * MARGIN) / ROW_HEIGHT) - 1);
+
+        // Counting the tasks needs the database, so do it in the background
+        final long start = LAYOUT_LATENCY.start();
+        try {
+            mExecutor.execute(() -> {
+                final int count = mDao.count();
+                LAYOUT_LATENCY.stop(start);
+                mMainHandler.post(() -> {
+                    if (cancellationSignal.isCanceled()) {
+                        callback.onLayoutCancelled();
+                        return;
+                    }
+                    mPageCount = Math.max(1, (count + mRowsPerPage - 1) / mRowsPerPage);
+                    PrintDocumentInfo info = new PrintDocumentInfo
+                            .Builder(mContext.getString(R.string.print_name) + ".pdf")
+                            .setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
+                            .setPageCount(mPageCount)
+                            .build();
+                    callback.onLayoutFinished(info, changed);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // The database is shutting down
+            PRINT_FAILURES.increment();
+            LOGGER.log(Level.WARNING, "Could not lay out print document", e);
+            callback.onLayoutFailed(e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public void onWrite(final PageRange[] pages, final ParcelFileDescriptor destination,
+                        final CancellationSignal cancellationSignal,
+                        final WriteResultCallback callback) {
+        final PrintAttributes attributes = mAttributes;
+        final int rowsPerPage = mRowsPerPage;
+        final List<PageRange> ranges = normalize(pages, mPageCount);
+
+        try {
+            mExecutor.execute(() -> {
+                final long start = WRITE_LATENCY.start();
+                PrintedPdfDocument pdf = new PrintedPdfDocument(mContext, attributes);
+                try {
+                    for (PageRange range : ranges) {
+                        writeRange(pdf, range, rowsPerPage, cancellationSignal);
+                    }
+                    try (OutputStream out = new FileOutputStream(destination.getFileDescriptor())) {
+                        pdf.writeTo(out);
+                    }
+                    WRITE_LATENCY.stop(start);
+                    final PageRange[] written = ranges.toArray(new PageRange[0]);
+                    mMainHandler.post(() -> callback.onWriteFinished(written));
+                } catch (OperationCanceledException e) {
+                    mMainHandler.post(callback::onWriteCancelled);
+                } catch (IOException | RuntimeException e) {
+                    PRINT_FAILURES.increment();
+                    LOGGER.log(Level.SEVERE, "Failed to write print document", e);
+                    mMainHandler.post(() -> callback.onWriteFailed(e.getLocalizedMessage()));
+                } finally {
+                    pdf.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PRINT_FAILURES.increment();
+            LOGGER.log(Level.WARNING, "Could not write print document", e);
+            callback.onWriteFailed(e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public void onFinish() {
+        mLease.release();
+    }
+
+    /**
+     * Draws the pages in range. Finds the Task the first page starts at, then reads one page of
+     * Tasks at a time, carrying on from the last Task drawn.
+     */
+    @WorkerThread
+    private void writeRange(@NonNull final PrintedPdfDocument pdf, @NonNull final PageRange range,
+                            final int rowsPerPage, @NonNull final CancellationSignal signal) {
+        long lastId = 0;
+        if (range.getStart() > 0) {
+            Long id = mDao.getIdAt(range.getStart() * rowsPerPage - 1);
+            lastId = id == null ? Long.MAX_VALUE : id;
+        }
+
+        for (int pageNumber = range.getStart(); pageNumber <= range.getEnd(); pageNumber++) {
+            signal.throwIfCanceled();
+            List<Task> tasks = mDao.getPageAfter(lastId, rowsPerPage);
+            PdfDocument.Page page = pdf.startPage(pageNumber);
+            drawPage(page.getCanvas(), tasks);
+            pdf.finishPage(page);
+            PAGES_PRINTED.increment();
+            if (!tasks.isEmpty()) {
+                lastId = tasks.get(tasks.size() - 1).getId();
+            }
+        }
+    }
+
+    private void drawPage(@NonNull final Canvas canvas, @NonNull final List<Task> tasks) {
+        float descriptionX = MARGIN + ID_COLUMN_WIDTH;
+        float descriptionWidth = canvas.getWidth() - descriptionX - MARGIN;
+        float y = MARGIN + TEXT_SIZE;
+
+        canvas.drawText(mContext.getString(R.string.csv_header_col_1), MARGIN, y, mHeaderPaint);
+        canvas.drawText(mContext.getString(R.string.csv_header_col_2), descriptionX, y, mHeaderPaint);
+        for (Task task : tasks) {
+            y += ROW_HEIGHT;
+            canvas.drawText(Long.toString(task.getId()), MARGIN, y, mTextPaint);
+            CharSequence description = TextUtils.ellipsize(task.getDescription(), mTextPaint,
+                    descriptionWidth, TextUtils.TruncateAt.END);
+            canvas.drawText(description, 0, description.length(), descriptionX, y, mTextPaint);
+        }
+    }
+
+    /**
+     * Turns the ranges requested by the print framework into concrete, in-bounds ranges.
+     */
+    private static List<PageRange> normalize(@NonNull final PageRange[] pages, final int pageCount) {
+        List<PageRange> ranges = new ArrayList<>();
+        for (PageRange range : pages) {
+            if (PageRange.ALL_PAGES.equals(range)) {
+                ranges.clear();
+                ranges.add(new PageRange(0, pageCount - 1));
+                break;
+            }
+            int start = Math.max(0, range.getStart());
+            int end = Math.min(pageCount - 1, range.getEnd());
+            if (start <= end) {
+                ranges.add(new PageRange(start, end));
+            }
+        }
+        return ranges;
+    }
+
+    private static float toPoints(final int mils) {
+        return mils * (float) POINTS_PER_INCH / MILS_PER_INCH;
+    }
+}
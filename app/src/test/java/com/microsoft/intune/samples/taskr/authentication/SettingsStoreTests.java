@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.authentication;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+public class SettingsStoreTests {
+    @Test
+    public void accountSurvivesRoundTrip() throws IOException {
+        AppAccount account = new AppAccount("user@contoso.com", "00000000-0000-0000-0000-000000000001",
+                "tenant", "https://login.microsoftonline.com/common");
+
+        AppAccount read = roundTrip(new SettingsStore.Snapshot(account)).mAccount;
+
+        assertEquals(account.getUPN(), read.getUPN());
+        assertEquals(account.getAADID(), read.getAADID());
+        assertEquals(account.getTenantID(), read.getTenantID());
+        assertEquals(account.getAuthority(), read.getAuthority());
+    }
+
+    @Test
+    public void noAccountSurvivesRoundTrip() throws IOException {
+        assertNull(roundTrip(SettingsStore.Snapshot.EMPTY).mAccount);
+    }
+
+    @Test
+    public void missingFieldsSurviveRoundTrip() throws IOException {
+        // MSAL doesn't always supply a tenant or authority
+        AppAccount account = new AppAccount("user@contoso.com", "00000000-0000-0000-0000-000000000001",
+                null, null);
+
+        AppAccount read = roundTrip(new SettingsStore.Snapshot(account)).mAccount;
+
+        assertEquals(account.getUPN(), read.getUPN());
+        assertEquals(account.getAADID(), read.getAADID());
+        assertNull(read.getTenantID());
+        assertNull(read.getAuthority());
+    }
+
+    @Test
+    public void badMagicIsRejected() throws IOException {
+        byte[] bytes = write(SettingsStore.Snapshot.EMPTY);
+        bytes[0] ^= 0xff;
+        assertUnreadable(bytes);
+    }
+
+    @Test
+    public void unknownVersionIsRejected() throws IOException {
+        byte[] bytes = write(SettingsStore.Snapshot.EMPTY);
+        // The version follows the 4 byte magic number
+        bytes[4]++;
+        assertUnreadable(bytes);
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        byte[] bytes = write(new SettingsStore.Snapshot(
+                new AppAccount("user@contoso.com", "aadid", "tenant", "authority")));
+        try {
+            read(Arrays.copyOf(bytes, bytes.length - 1));
+            fail("Read a truncated settings file");
+        } catch (EOFException expected) {
+            // The file was cut short
+        }
+    }
+
+    private static SettingsStore.Snapshot roundTrip(final SettingsStore.Snapshot snapshot)
+            throws IOException {
+        return read(write(snapshot));
+    }
+
+    private static byte[] write(final SettingsStore.Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            SettingsStore.writeTo(out, snapshot);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SettingsStore.Snapshot read(final byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return SettingsStore.readFrom(in);
+        }
+    }
+
+    private static void assertUnreadable(final byte[] bytes) {
+        try {
+            read(bytes);
+            fail("Read a corrupt settings file");
+        } catch (IOException expected) {
+            // Not a settings file this version can read
+        }
+    }
+}
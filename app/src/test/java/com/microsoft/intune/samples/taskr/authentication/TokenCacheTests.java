@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.authentication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+
+public class TokenCacheTests {
+    private static final String USER = "user";
+    private static final String[] SCOPES = {"https://resource/.default"};
+
+    private ScheduledExecutorService mScheduler;
+    private final AtomicInteger mFetches = new AtomicInteger();
+    private volatile long mLifetimeMs = TimeUnit.HOURS.toMillis(1);
+
+    @Before
+    public void createScheduler() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void shutdownScheduler() {
+        mScheduler.shutdownNow();
+    }
+
+    private TokenCache newCache(final CountDownLatch fetchGate) {
+        return new TokenCache((aadId, scopes) -> {
+            int fetch = mFetches.incrementAndGet();
+            if (fetchGate != null) {
+                fetchGate.await();
+            }
+            return new TokenCache.Token(aadId + "-" + fetch, System.currentTimeMillis() + mLifetimeMs);
+        }, mScheduler);
+    }
+
+    @Test
+    public void cachesTokenPerUserAndScopes() throws Exception {
+        TokenCache cache = newCache(null);
+
+        assertEquals("user-1", cache.getAccessToken(USER, SCOPES));
+        assertEquals("user-1", cache.getAccessToken(USER, SCOPES));
+        assertEquals(1, mFetches.get());
+
+        // Scope order doesn't matter, but the set of scopes does
+        assertEquals("user-2", cache.getAccessToken(USER, new String[]{"b", "a"}));
+        assertEquals("user-2", cache.getAccessToken(USER, new String[]{"a", "b"}));
+        assertEquals("other-3", cache.getAccessToken("other", SCOPES));
+        assertEquals(3, mFetches.get());
+    }
+
+    @Test
+    public void refetchesExpiringAndInvalidatedTokens() throws Exception {
+        TokenCache cache = newCache(null);
+
+        // A token this close to expiring is never handed out from the cache
+        mLifetimeMs = TokenCache.MIN_VALIDITY_MS / 2;
+        assertEquals("user-1", cache.getAccessToken(USER, SCOPES));
+        mLifetimeMs = TimeUnit.HOURS.toMillis(1);
+        assertEquals("user-2", cache.getAccessToken(USER, SCOPES));
+        assertEquals("user-2", cache.getAccessToken(USER, SCOPES));
+
+        cache.invalidate(USER);
+        assertEquals("user-3", cache.getAccessToken(USER, SCOPES));
+        assertEquals(3, mFetches.get());
+    }
+
+    @Test
+    public void invalidatingOneUserKeepsAnotherUsersFetch() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        TokenCache cache = new TokenCache((aadId, scopes) -> {
+            int fetch = mFetches.incrementAndGet();
+            if ("other".equals(aadId)) {
+                fetching.countDown();
+                invalidated.await();
+            }
+            return new TokenCache.Token(aadId + "-" + fetch, System.currentTimeMillis() + mLifetimeMs);
+        }, mScheduler);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> other = caller.submit(() -> cache.getAccessToken("other", SCOPES));
+            fetching.await();
+            cache.invalidate(USER);
+            invalidated.countDown();
+            assertEquals("other-1", other.get(5, TimeUnit.SECONDS));
+
+            // The token fetched while another user was invalidated was still cached
+            assertEquals("other-1", cache.getAccessToken("other", SCOPES));
+            assertEquals(1, mFetches.get());
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        // The fetch doesn't finish until every caller has started, so they pile up behind it
+        CountDownLatch started = new CountDownLatch(8);
+        TokenCache cache = newCache(started);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> {
+                    started.countDown();
+                    return cache.getAccessToken(USER, SCOPES);
+                }));
+            }
+
+            for (Future<String> result : results) {
+                assertEquals("user-1", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, mFetches.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}
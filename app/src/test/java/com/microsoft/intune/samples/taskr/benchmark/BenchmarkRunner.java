@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small JMH-style harness for benchmarks that run as JVM unit tests. Each benchmark is run for
+ * a number of untimed warmup iterations, then for a number of timed ones, and the timings of
+ * every benchmark in a suite are written to a JSON report so runs can be compared over time.
+ * Where the JVM can count them, the bytes allocated during the timed iterations are reported too.
+ * Only the thread running the benchmark and the threads made by {@link #threadFactory()} are
+ * counted, so the allocations of unrelated threads, such as a test server's, are left out.
+ *
+ * Benchmarks only run when the taskr.benchmark system property is true, see app/build.gradle.
+ */
+public final class BenchmarkRunner {
+    /**
+     * True if benchmarks have been asked for. Benchmarks should be skipped otherwise.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("taskr.benchmark");
+
+    private static final String OUTPUT_DIR_PROPERTY = "taskr.benchmark.output";
+
+    /**
+     * The timed part of a benchmark.
+     */
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Untimed work that puts things back in place before each iteration of a benchmark.
+     */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    /**
+     * The timings of a single benchmark.
+     */
+    public static final class Result {
+        public final String name;
+        public final int iterations;
+        public final int opsPerIteration;
+        public final long minNanos;
+        public final long medianNanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+        public final double meanNanos;
+        /**
+         * The bytes allocated per operation by the benchmark's threads, or -1 if they were not
+         * counted.
+         */
+        public final long allocatedBytesPerOp;
+
+        Result(final String name, final int opsPerIteration, final long[] nanos,
+               final long allocatedBytes) {
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long n : sorted) {
+                total += n;
+            }
+            this.name = name;
+            this.iterations = sorted.length;
+            this.opsPerIteration = opsPerIteration;
+            this.minNanos = sorted[0];
+            this.medianNanos = sorted[sorted.length / 2];
+            this.p99Nanos = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.99) - 1)];
+            this.maxNanos = sorted[sorted.length - 1];
+            this.meanNanos = (double) total / sorted.length;
+            this.allocatedBytesPerOp = allocatedBytes < 0
+                    ? -1 : allocatedBytes / ((long) sorted.length * opsPerIteration);
+        }
+
+        /**
+         * @return the mean number of operations completed per second
+         */
+        public double opsPerSecond() {
+            return opsPerIteration / (meanNanos / 1e9);
+        }
+    }
+
+    private final String mSuite;
+    private final int mWarmupIterations;
+    private final int mIterations;
+    private final List<Result> mResults = new ArrayList<>();
+    private final Set<Thread> mBenchmarkThreads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+    /**
+     * @param suite            the name of the suite, used to name the report
+     * @param warmupIterations the number of untimed iterations to run first
+     * @param iterations       the number of timed iterations
+     */
+    public BenchmarkRunner(final String suite, final int warmupIterations, final int iterations) {
+        mSuite = suite;
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+    }
+
+    /**
+     * Makes threads whose allocations count towards the benchmarks they do work for. Benchmarks
+     * which hand their operations to other threads should create those threads with this.
+     *
+     * @return a factory for the benchmark's threads
+     */
+    public ThreadFactory threadFactory() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, mSuite + "-" + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            mBenchmarkThreads.add(thread);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs a benchmark and records its timings.
+     *
+     * @param name            the name of the benchmark, including any parameters
+     * @param opsPerIteration how many operations one call of operation performs
+     * @param setup           run before every iteration and not timed, may be null
+     * @param operation       the work to time
+     * @return the timings of the benchmark
+     * @throws Exception if setup or operation fail
+     */
+    public Result measure(final String name, final int opsPerIteration, final Setup setup,
+                          final Operation operation) throws Exception {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            operation.run();
+        }
+
+        long[] nanos = new long[mIterations];
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        for (int i = 0; i < mIterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            operation.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+
+        long allocated = allocatedSince(allocatedBefore);
+
+        Result result = new Result(name, opsPerIteration, nanos, allocated);
+        mResults.add(result);
+        System.out.println(String.format(Locale.US, "%s: %.3f ms/iteration, %.1f ops/s, %d B/op",
+                name, result.meanNanos / 1e6, result.opsPerSecond(), result.allocatedBytesPerOp));
+        return result;
+    }
+
+    /**
+     * Writes every result recorded so far to &lt;output dir&gt;/&lt;suite&gt;.json.
+     *
+     * @return the report file
+     * @throws IOException if the report could not be written
+     */
+    public File writeReport() throws IOException {
+        File dir = new File(System.getProperty(OUTPUT_DIR_PROPERTY, "build/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File report = new File(dir, mSuite + ".json");
+        try (Writer out = new FileWriter(report)) {
+            out.write("{\n");
+            out.write("  \"suite\": " + quote(mSuite) + ",\n");
+            out.write("  \"timestamp\": " + System.currentTimeMillis() + ",\n");
+            out.write("  \"jvm\": " + quote(System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version")) + ",\n");
+            out.write("  \"warmupIterations\": " + mWarmupIterations + ",\n");
+            out.write("  \"benchmarks\": [");
+            for (int i = 0; i < mResults.size(); i++) {
+                Result r = mResults.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write(String.format(Locale.US, "    {\"name\": %s, \"iterations\": %d, "
+                                + "\"opsPerIteration\": %d, \"minNanos\": %d, \"medianNanos\": %d, "
+                                + "\"p99Nanos\": %d, \"maxNanos\": %d, \"meanNanos\": %.1f, "
+                                + "\"opsPerSecond\": %.3f, \"allocatedBytesPerOp\": %d}",
+                        quote(r.name), r.iterations, r.opsPerIteration, r.minNanos,
+                        r.medianNanos, r.p99Nanos, r.maxNanos, r.meanNanos, r.opsPerSecond(),
+                        r.allocatedBytesPerOp));
+            }
+            out.write("\n  ]\n}\n");
+        }
+        return report;
+    }
+
+    /**
+     * The bytes allocated so far by each of the benchmark's threads, by thread id, or null if the
+     * JVM can't count them.
+     */
+    private Map<Long, Long> allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        if (!counting.isThreadAllocatedMemorySupported() || !counting.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+
+        List<Thread> benchmarkThreads = new ArrayList<>();
+        benchmarkThreads.add(Thread.currentThread());
+        for (Thread thread : mBenchmarkThreads) {
+            if (thread.isAlive()) {
+                benchmarkThreads.add(thread);
+            } else {
+                mBenchmarkThreads.remove(thread);
+            }
+        }
+        long[] ids = new long[benchmarkThreads.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = benchmarkThreads.get(i).getId();
+        }
+
+        long[] bytes = counting.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            // -1 for threads which ended while they were being counted
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * The bytes the benchmark's threads allocated since before was taken, or -1 if they can't be
+     * counted. Threads started in between count from zero; threads which ended in between are
+     * missed, so benchmarks should keep theirs running until they are measured.
+     */
+    private long allocatedSince(final Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytes();
+        if (before == null || after == null) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            Long start = before.get(thread.getKey());
+            total += thread.getValue() - (start == null ? 0 : start);
+        }
+        return total;
+    }
+
+    private static String quote(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
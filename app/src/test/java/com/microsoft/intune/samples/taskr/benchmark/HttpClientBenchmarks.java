@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.benchmark;
+
+import com.microsoft.intune.samples.taskr.trustedroots.network.HttpClientFactory;
+import com.microsoft.intune.samples.taskr.trustedroots.network.ResponseBodyReader;
+import com.microsoft.intune.samples.taskr.trustedroots.network.TrustMaterial;
+import com.microsoft.intune.samples.taskr.trustedroots.network.TrustMaterialCache;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the HTTP clients on the Trusted Roots screen, on the JVM. Every client sends the same
+ * mix of requests to a local HTTPS server, whose certificate is issued by a root CA of its own,
+ * the way a tenant's internal servers are. Clients are built with {@link HttpClientFactory}, as the
+ * app builds them, and read bodies with {@link ResponseBodyReader}.
+ *
+ * Each client is measured with two sets of trusted roots:
+ * <ul>
+ *     <li>platform: the test CA is the only root, as if it were installed on the device.</li>
+ *     <li>mam: the JVM's roots plus the test CA, loaded through {@link TrustMaterialCache}, as
+ *     MAM delivers a tenant's roots on top of the platform's.</li>
+ * </ul>
+ *
+ * The benchmarks are newConnection (a full TLS handshake and one small request; each client gets
+ * an SSLContext of its own, so no session is resumed from an earlier client), latency (one request
+ * of the mix at a time on a warm client, for p50 and p99) and throughput (the mix sent from
+ * several threads at once). Allocations are counted on the threads sending requests only, so work
+ * a client hands to threads of its own, such as OkHttp's HTTP/2 readers, is left out, and so is
+ * the server's.
+ *
+ * WebView is left out: it needs a device, and MAM checks its certificates inside the SDK.
+ *
+ * Run with ./gradlew :app:testDebugUnitTest -Ptaskr.benchmark=true --tests '*HttpClientBenchmarks'
+ * and find the report in app/build/benchmarks/http_clients.json.
+ */
+public class HttpClientBenchmarks {
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 100;
+    private static final int THREADS = 4;
+    private static final int REQUESTS_PER_THREAD = 10;
+
+    private static final String SMALL = "/small";
+    private static final String MEDIUM = "/medium";
+    private static final String LARGE = "/large";
+    // Mostly small API responses, some pages and the odd download
+    private static final String[] MIX = {SMALL, MEDIUM, SMALL, SMALL, MEDIUM, SMALL, LARGE, SMALL, MEDIUM, SMALL};
+
+    private static final String[] TRUSTS = {"platform", "mam"};
+    private static final String[] CLIENTS = {"okhttp", "apache"};
+
+    private static BenchmarkRunner mRunner;
+    private static MockWebServer mServer;
+    private static TrustMaterial mPlatformTrust;
+    private static TrustMaterial mMamTrust;
+
+    private ExecutorService mThreads;
+
+    /**
+     * Sends GET requests and reads their bodies.
+     */
+    private interface Client extends AutoCloseable {
+        /**
+         * @return the number of body bytes read
+         */
+        long get(String path) throws Exception;
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        mRunner = new BenchmarkRunner("http_clients", WARMUP_ITERATIONS, ITERATIONS);
+        if (!BenchmarkRunner.ENABLED) {
+            return;
+        }
+
+        HeldCertificate root = new HeldCertificate.Builder()
+                .certificateAuthority(0)
+                .commonName("Taskr Benchmark Root")
+                .build();
+        String host = InetAddress.getByName("localhost").getCanonicalHostName();
+        HeldCertificate serverCertificate = new HeldCertificate.Builder()
+                .commonName(host)
+                .addSubjectAlternativeName(host)
+                .addSubjectAlternativeName("localhost")
+                .signedBy(root)
+                .build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(serverCertificate, root.certificate())
+                .build();
+
+        mServer = new MockWebServer();
+        mServer.useHttps(serverCertificates.sslSocketFactory(), false);
+        // OkHttp uses HTTP/2 where it can; Apache's classic client speaks HTTP/1.1
+        mServer.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        mServer.setDispatcher(new BodyDispatcher());
+        mServer.start();
+
+        HandshakeCertificates platform = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(root.certificate())
+                .build();
+        mPlatformTrust = new TrustMaterial(platform.sslContext(), platform.trustManager());
+
+        final KeyStore roots = loadJvmRoots();
+        roots.setCertificateEntry("taskr-benchmark-root", root.certificate());
+        mMamTrust = new TrustMaterialCache(() -> trustMaterialFor(roots)).get();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        if (BenchmarkRunner.ENABLED) {
+            System.out.println("Benchmark report: " + mRunner.writeReport());
+        }
+    }
+
+    @Before
+    public void createThreads() {
+        assumeTrue("Benchmarks are disabled", BenchmarkRunner.ENABLED);
+        mThreads = Executors.newFixedThreadPool(THREADS, mRunner.threadFactory());
+    }
+
+    @After
+    public void stopThreads() {
+        if (mThreads != null) {
+            mThreads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void newConnection() throws Exception {
+        for (String trust : TRUSTS) {
+            for (String name : CLIENTS) {
+                // A new client has no pooled connections, so every request starts with a handshake
+                final Client[] client = new Client[1];
+                mRunner.measure("newConnection[client=" + name + ",trust=" + trust + "]", 1, () -> {
+                    if (client[0] != null) {
+                        client[0].close();
+                    }
+                    client[0] = newClient(name, newSessionCache(trustMaterial(trust)));
+                }, () -> client[0].get(SMALL));
+                client[0].close();
+            }
+        }
+    }
+
+    @Test
+    public void latency() throws Exception {
+        for (String trust : TRUSTS) {
+            for (String name : CLIENTS) {
+                try (Client client = newClient(name, trustMaterial(trust))) {
+                    final int[] next = {0};
+                    mRunner.measure("latency[client=" + name + ",trust=" + trust + "]", 1, null,
+                            () -> client.get(MIX[next[0]++ % MIX.length]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        for (String trust : TRUSTS) {
+            for (String name : CLIENTS) {
+                try (Client client = newClient(name, trustMaterial(trust))) {
+                    mRunner.measure("throughput[client=" + name + ",trust=" + trust + ",threads="
+                            + THREADS + "]", THREADS * REQUESTS_PER_THREAD, null, () -> {
+                        List<Future<?>> requests = new ArrayList<>();
+                        for (int t = 0; t < THREADS; t++) {
+                            final int offset = t;
+                            requests.add(mThreads.submit(() -> {
+                                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                                    client.get(MIX[(offset + i) % MIX.length]);
+                                }
+                                return null;
+                            }));
+                        }
+                        for (Future<?> request : requests) {
+                            request.get();
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private static TrustMaterial trustMaterial(final String trust) {
+        return "mam".equals(trust) ? mMamTrust : mPlatformTrust;
+    }
+
+    /**
+     * Copies material with an SSLContext of its own. Clients built from the same context share its
+     * TLS session cache, and would resume each other's sessions instead of making new ones.
+     */
+    private static TrustMaterial newSessionCache(final TrustMaterial material) throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new X509TrustManager[] {material.getTrustManager()}, null);
+        return new TrustMaterial(sslContext, material.getTrustManager());
+    }
+
+    private static Client newClient(final String name, final TrustMaterial material) {
+        if ("okhttp".equals(name)) {
+            return new OkHttp(HttpClientFactory.okHttp(HttpClientFactory.okHttp(), material));
+        }
+        return new Apache(HttpClientFactory.apache(material));
+    }
+
+    private static long readBody(final InputStream body) {
+        return ResponseBodyReader.INSTANCE.read(body, StandardCharsets.UTF_8, Long.MAX_VALUE, null)
+                .getBytes();
+    }
+
+    private static final class OkHttp implements Client {
+        private final OkHttpClient mClient;
+
+        OkHttp(final OkHttpClient client) {
+            mClient = client;
+        }
+
+        @Override
+        public long get(final String path) throws Exception {
+            Request request = new Request.Builder().url(mServer.url(path)).build();
+            try (Response response = mClient.newCall(request).execute()) {
+                assertEquals(200, response.code());
+                return readBody(response.body().byteStream());
+            }
+        }
+
+        @Override
+        public void close() {
+            mClient.dispatcher().executorService().shutdown();
+            mClient.connectionPool().evictAll();
+        }
+    }
+
+    private static final class Apache implements Client {
+        private final CloseableHttpClient mClient;
+
+        Apache(final CloseableHttpClient client) {
+            mClient = client;
+        }
+
+        @Override
+        public long get(final String path) throws Exception {
+            try (CloseableHttpResponse response = mClient.execute(new HttpGet(mServer.url(path).uri()))) {
+                assertEquals(200, response.getCode());
+                try (InputStream body = response.getEntity().getContent()) {
+                    return readBody(body);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            mClient.close();
+        }
+    }
+
+    /**
+     * Answers each path with a body of a fixed size.
+     */
+    private static final class BodyDispatcher extends Dispatcher {
+        private final String mSmall = body(1024);
+        private final String mMedium = body(32 * 1024);
+        private final String mLarge = body(512 * 1024);
+
+        @Override
+        public MockResponse dispatch(final RecordedRequest request) {
+            String path = request.getPath();
+            String body = LARGE.equals(path) ? mLarge : MEDIUM.equals(path) ? mMedium : mSmall;
+            return new MockResponse()
+                    .setHeader("Content-Type", "text/plain; charset=utf-8")
+                    .setBody(body);
+        }
+
+        private static String body(final int length) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) ('a' + i % 26);
+            }
+            return new String(chars);
+        }
+    }
+
+    private static KeyStore loadJvmRoots() throws Exception {
+        KeyStore roots = KeyStore.getInstance(KeyStore.getDefaultType());
+        File file = new File(System.getProperty("java.home"), "lib/security/cacerts");
+        try (InputStream in = new FileInputStream(file)) {
+            roots.load(in, null);
+        }
+        return roots;
+    }
+
+    private static TrustMaterial trustMaterialFor(final KeyStore roots) {
+        try {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            factory.init(roots);
+            X509TrustManager trustManager = (X509TrustManager) factory.getTrustManagers()[0];
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new X509TrustManager[] {trustManager}, null);
+            return new TrustMaterial(sslContext, trustManager);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not build the trust material", e);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.benchmark;
+
+import android.content.Context;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.microsoft.intune.samples.taskr.room.CsvTaskRowEncoder;
+import com.microsoft.intune.samples.taskr.room.HtmlTaskRowEncoder;
+import com.microsoft.intune.samples.taskr.room.Task;
+import com.microsoft.intune.samples.taskr.room.TaskDao;
+import com.microsoft.intune.samples.taskr.room.TaskDatabase;
+import com.microsoft.intune.samples.taskr.room.TaskDocumentExporter;
+import com.microsoft.intune.samples.taskr.room.TaskRowEncoder;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.Writer;
+import java.util.List;
+
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks for the Room persistence layer, run on the JVM against Robolectric's SQLite.
+ * Run with ./gradlew :app:testDebugUnitTest -Ptaskr.benchmark=true --tests '*RoomBenchmarks'
+ * and find the report in app/build/benchmarks/room.json.
+ *
+ * The row counts for the read and export benchmarks can be changed with
+ * -Ptaskr.benchmark.rows=1000,100000,1000000.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class RoomBenchmarks {
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 5;
+    private static final int BATCH_SIZE = 1000;
+    private static final int INSERT_CHUNK = 10000;
+
+    private static BenchmarkRunner mRunner;
+    private TaskDatabase mDb;
+    private TaskDao mDao;
+
+    @BeforeClass
+    public static void createRunner() {
+        mRunner = new BenchmarkRunner("room", WARMUP_ITERATIONS, ITERATIONS);
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        if (BenchmarkRunner.ENABLED) {
+            System.out.println("Benchmark report: " + mRunner.writeReport());
+        }
+    }
+
+    @Before
+    public void createDb() {
+        assumeTrue("Benchmarks are disabled", BenchmarkRunner.ENABLED);
+        Context context = ApplicationProvider.getApplicationContext();
+        mDb = Room.inMemoryDatabaseBuilder(context, TaskDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        mDao = mDb.taskDao();
+    }
+
+    @After
+    public void closeDb() {
+        if (mDb != null) {
+            mDb.close();
+        }
+    }
+
+    @Test
+    public void insertOneAtATime() throws Exception {
+        mRunner.measure("insert[batch=" + BATCH_SIZE + "]", BATCH_SIZE, mDb::clearAllTables, () -> {
+            for (Task task : newTasks(BATCH_SIZE)) {
+                mDao.insert(task);
+            }
+        });
+    }
+
+    @Test
+    public void insertAll() throws Exception {
+        mRunner.measure("insertAll[batch=" + BATCH_SIZE + "]", BATCH_SIZE, mDb::clearAllTables,
+                () -> mDao.insertAll(newTasks(BATCH_SIZE)));
+    }
+
+    @Test
+    public void deleteBatches() throws Exception {
+        final Task[][] tasks = new Task[1][];
+        mRunner.measure("delete[batch=" + BATCH_SIZE + "]", BATCH_SIZE, () -> {
+            mDb.clearAllTables();
+            tasks[0] = newTasks(BATCH_SIZE);
+            long[] ids = mDao.insertAll(tasks[0]);
+            for (int i = 0; i < ids.length; i++) {
+                tasks[0][i].setId(ids[i]);
+            }
+        }, () -> mDao.delete(tasks[0]));
+    }
+
+    @Test
+    public void clearAllTables() throws Exception {
+        mRunner.measure("clearAllTables[rows=" + BATCH_SIZE + "]", 1,
+                () -> mDao.insertAll(newTasks(BATCH_SIZE)), mDb::clearAllTables);
+    }
+
+    @Test
+    public void getAllSync() throws Exception {
+        for (int rows : rowCounts()) {
+            fill(rows);
+            mRunner.measure("getAllSync[rows=" + rows + "]", rows, null, () -> {
+                List<Task> tasks = mDao.getAllSync();
+                assertTrue(tasks.size() == rows);
+            });
+        }
+    }
+
+    @Test
+    public void exportDocuments() throws Exception {
+        for (int rows : rowCounts()) {
+            fill(rows);
+            measureExport("exportCsv[rows=" + rows + "]", rows, new CsvTaskRowEncoder());
+            measureExport("exportHtml[rows=" + rows + "]", rows, new HtmlTaskRowEncoder());
+        }
+    }
+
+    private void measureExport(final String name, final int rows, final TaskRowEncoder encoder)
+            throws Exception {
+        TaskDocumentExporter exporter = new TaskDocumentExporter(mDao, encoder, "ID", "Task description");
+        mRunner.measure(name, rows, null, () -> {
+            int written = exporter.export(new NullWriter(), null, null);
+            assertTrue(written == rows);
+        });
+    }
+
+    /**
+     * Replaces the contents of the table with rows tasks, inserted in chunks.
+     */
+    private void fill(final int rows) {
+        mDb.clearAllTables();
+        for (int inserted = 0; inserted < rows; inserted += INSERT_CHUNK) {
+            mDao.insertAll(newTasks(Math.min(INSERT_CHUNK, rows - inserted)));
+        }
+    }
+
+    private static Task[] newTasks(final int count) {
+        Task[] tasks = new Task[count];
+        for (int i = 0; i < count; i++) {
+            tasks[i] = new Task("Benchmark task number " + i + " with a typical description");
+        }
+        return tasks;
+    }
+
+    private static int[] rowCounts() {
+        String[] values = System.getProperty("taskr.benchmark.rows", "1000,100000,1000000").split(",");
+        int[] rows = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            rows[i] = Integer.parseInt(values[i].trim());
+        }
+        return rows;
+    }
+
+    /**
+     * A Writer that throws away everything written to it, so exports are timed without I/O.
+     */
+    private static final class NullWriter extends Writer {
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
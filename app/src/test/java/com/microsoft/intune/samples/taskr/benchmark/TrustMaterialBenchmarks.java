@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.benchmark;
+
+import com.microsoft.intune.samples.taskr.trustedroots.network.TrustMaterial;
+import com.microsoft.intune.samples.taskr.trustedroots.network.TrustMaterialCache;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks the trust material each trusted roots request needs, built afresh every time as it
+ * used to be, and taken from {@link TrustMaterialCache}. The JVM's own trust store stands in for
+ * MAM's trusted roots; loading it reads and parses every certificate, as MAM does.
+ * Run with ./gradlew :app:testDebugUnitTest -Ptaskr.benchmark=true --tests '*TrustMaterialBenchmarks'
+ * and find the report in app/build/benchmarks/trust_material.json.
+ */
+public class TrustMaterialBenchmarks {
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 10;
+    private static final int REQUESTS = 50;
+
+    private static BenchmarkRunner mRunner;
+    private TrustMaterialCache mCache;
+
+    @BeforeClass
+    public static void createRunner() {
+        mRunner = new BenchmarkRunner("trust_material", WARMUP_ITERATIONS, ITERATIONS);
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        if (BenchmarkRunner.ENABLED) {
+            System.out.println("Benchmark report: " + mRunner.writeReport());
+        }
+    }
+
+    @Before
+    public void createCache() {
+        assumeTrue("Benchmarks are disabled", BenchmarkRunner.ENABLED);
+        mCache = new TrustMaterialCache(TrustMaterialBenchmarks::load);
+    }
+
+    @Test
+    public void uncached() throws Exception {
+        mRunner.measure("uncached[requests=" + REQUESTS + "]", REQUESTS, null, () -> {
+            for (int i = 0; i < REQUESTS; i++) {
+                assertTrue(load().getSocketFactory() != null);
+            }
+        });
+    }
+
+    @Test
+    public void cached() throws Exception {
+        mRunner.measure("cached[requests=" + REQUESTS + "]", REQUESTS, mCache::invalidate, () -> {
+            // The first request after an invalidation loads the roots again
+            for (int i = 0; i < REQUESTS; i++) {
+                assertTrue(mCache.get().getSocketFactory() != null);
+            }
+        });
+    }
+
+    @Test
+    public void cachedWithoutInvalidation() throws Exception {
+        mCache.get();
+        mRunner.measure("cachedWithoutInvalidation[requests=" + REQUESTS + "]", REQUESTS, null, () -> {
+            for (int i = 0; i < REQUESTS; i++) {
+                assertTrue(mCache.get().getSocketFactory() != null);
+            }
+        });
+    }
+
+    /**
+     * Builds trust material the way MAMTrustedRootCertsManager does: reads the certificates,
+     * then makes a trust manager and an SSLContext from them.
+     */
+    private static TrustMaterial load() {
+        try {
+            KeyStore roots = KeyStore.getInstance(KeyStore.getDefaultType());
+            File file = new File(System.getProperty("java.home"), "lib/security/cacerts");
+            try (InputStream in = new FileInputStream(file)) {
+                roots.load(in, null);
+            }
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            factory.init(roots);
+            X509TrustManager trustManager = (X509TrustManager) factory.getTrustManagers()[0];
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new X509TrustManager[] {trustManager}, null);
+            return new TrustMaterial(sslContext, trustManager);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not load the trust store", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.policy;
+
+import com.microsoft.intune.mam.policy.notification.MAMNotificationType;
+import com.microsoft.intune.mam.policy.notification.MAMUserNotification;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class PolicyCacheTests {
+    private static final String USER = "user";
+    private static final String OTHER = "other";
+
+    private final AtomicInteger mLookups = new AtomicInteger();
+    // Whether each user may save locally; stands in for the policy MAM would deliver
+    private final Map<String, Boolean> mSaveAllowed = new HashMap<>();
+    private PolicyCache mCache;
+
+    @Before
+    public void createCache() {
+        mSaveAllowed.put(USER, true);
+        mSaveAllowed.put(OTHER, false);
+        mCache = new PolicyCache(aadId -> {
+            mLookups.incrementAndGet();
+            boolean allowed = aadId != null && mSaveAllowed.get(aadId);
+            return new PolicySnapshot(allowed, allowed, true, false);
+        });
+    }
+
+    @Test
+    public void cachesPolicyPerUser() {
+        PolicySnapshot first = mCache.get(USER);
+        assertTrue(first.isSaveToLocalAllowed());
+        assertSame(first, mCache.get(USER));
+        assertEquals(1, mLookups.get());
+
+        assertFalse(mCache.get(OTHER).isSaveToLocalAllowed());
+        assertFalse(mCache.get(null).isSaveToLocalAllowed());
+        mCache.get(null);
+        assertEquals(3, mLookups.get());
+    }
+
+    @Test
+    public void policyRefreshDropsOnlyThatUser() {
+        mCache.get(USER);
+        mCache.get(OTHER);
+        mCache.get(null);
+
+        mSaveAllowed.put(USER, false);
+        assertTrue(mCache.onReceive(notification(MAMNotificationType.REFRESH_POLICY, USER)));
+
+        assertFalse(mCache.get(USER).isSaveToLocalAllowed());
+        mCache.get(OTHER);
+        // Nobody-signed-in policy is refetched along with the user's
+        mCache.get(null);
+        assertEquals(5, mLookups.get());
+    }
+
+    @Test
+    public void otherNotificationsDropEverything() {
+        mCache.get(USER);
+        mCache.get(OTHER);
+
+        assertTrue(mCache.onReceive(notification(MAMNotificationType.MANAGEMENT_REMOVED, USER)));
+        mCache.get(USER);
+        mCache.get(OTHER);
+        assertEquals(4, mLookups.get());
+
+        // A refresh that doesn't say which user it is for drops everything too
+        assertTrue(mCache.onReceive(notification(MAMNotificationType.REFRESH_POLICY, null)));
+        mCache.get(USER);
+        mCache.get(OTHER);
+        assertEquals(6, mLookups.get());
+    }
+
+    private static MAMUserNotification notification(final MAMNotificationType type,
+                                                    final String oid) {
+        return new MAMUserNotification() {
+            @Override
+            public String getUserIdentity() {
+                return "user@contoso.com";
+            }
+
+            @Override
+            public String getUserOid() {
+                return oid;
+            }
+
+            @Override
+            public MAMNotificationType getType() {
+                return type;
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ResponseBodyReaderTests {
+    private static final int LIMIT = 1000;
+
+    @Test
+    public void readsBodyUnderTheLimit() {
+        String text = repeat("a", LIMIT - 1);
+        ResponseBodyReader.Body body = read(text, LIMIT);
+        assertEquals(text, body.getText());
+        assertEquals(LIMIT - 1, body.getBytes());
+        assertFalse(body.getTruncated());
+    }
+
+    @Test
+    public void bodyOfExactlyTheLimitIsNotTruncated() {
+        String text = repeat("a", LIMIT);
+        ResponseBodyReader.Body body = read(text, LIMIT);
+        assertEquals(text, body.getText());
+        assertFalse(body.getTruncated());
+    }
+
+    @Test
+    public void stopsAtTheLimit() {
+        final int[] consumed = {0};
+        // A body far bigger than the limit, which counts how much of it is read
+        InputStream stream = new InputStream() {
+            @Override
+            public int read() {
+                consumed[0]++;
+                return 'a';
+            }
+        };
+        ResponseBodyReader.Body body = ResponseBodyReader.INSTANCE.read(
+                stream, StandardCharsets.UTF_8, LIMIT, null);
+        assertEquals(repeat("a", LIMIT), body.getText());
+        assertEquals(LIMIT, body.getBytes());
+        assertTrue(body.getTruncated());
+        // The limit plus the one byte which shows there was more
+        assertEquals(LIMIT + 1, consumed[0]);
+    }
+
+    @Test
+    public void decodesCharactersSplitAcrossChunks() {
+        // Three bytes each, so they straddle the reader's chunk boundaries
+        String text = repeat("€", ResponseBodyReader.CHUNK_SIZE);
+        ResponseBodyReader.Body body = read(text, Long.MAX_VALUE);
+        assertEquals(text, body.getText());
+        assertEquals(3L * ResponseBodyReader.CHUNK_SIZE, body.getBytes());
+    }
+
+    @Test
+    public void reportsProgressWithTheHeadReadSoFar() {
+        final String text = repeat("a", ResponseBodyReader.PROGRESS_HEAD_CHARS / 2)
+                + repeat("b", 16 * ResponseBodyReader.CHUNK_SIZE);
+        final List<Long> progress = new ArrayList<>();
+        final List<String> heads = new ArrayList<>();
+        // Slow enough that progress is reported along the way
+        InputStream stream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, Math.min(len, 1024));
+            }
+        };
+        ResponseBodyReader.Body body = ResponseBodyReader.INSTANCE.read(
+                stream, StandardCharsets.UTF_8, Long.MAX_VALUE, (bytes, head) -> {
+                    progress.add(bytes);
+                    heads.add(head);
+                });
+        assertEquals(text, body.getText());
+        assertFalse(progress.isEmpty());
+        long last = 0;
+        for (long bytes : progress) {
+            assertTrue(bytes > last && bytes <= text.length());
+            last = bytes;
+        }
+        for (String head : heads) {
+            assertFalse(head.isEmpty());
+            assertTrue(head.length() <= ResponseBodyReader.PROGRESS_HEAD_CHARS);
+            assertTrue(text.startsWith(head));
+        }
+        // Progress is reported long after the head has filled up
+        assertEquals(ResponseBodyReader.PROGRESS_HEAD_CHARS, heads.get(heads.size() - 1).length());
+    }
+
+    private static ResponseBodyReader.Body read(final String text, final long limit) {
+        return ResponseBodyReader.INSTANCE.read(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, limit, null);
+    }
+
+    private static String repeat(final String value, final int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
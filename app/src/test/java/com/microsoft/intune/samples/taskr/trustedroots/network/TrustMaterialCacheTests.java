@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.intune.samples.taskr.trustedroots.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+public class TrustMaterialCacheTests {
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private volatile boolean mFailLoads;
+    // The roots MAM would deliver; the JVM's own roots stand in for them
+    private X509Certificate[] mRoots;
+    private TrustMaterialCache mCache;
+
+    @Before
+    public void createCache() throws Exception {
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        factory.init((KeyStore) null);
+        mRoots = ((X509TrustManager) factory.getTrustManagers()[0]).getAcceptedIssuers();
+        final SSLContext sslContext = SSLContext.getDefault();
+        mCache = new TrustMaterialCache(() -> {
+            mLoads.incrementAndGet();
+            if (mFailLoads) {
+                throw new IllegalStateException("MAM could not read the roots");
+            }
+            return new TrustMaterial(sslContext, new RootsTrustManager(mRoots.clone()));
+        });
+    }
+
+    @Test
+    public void loadsOnce() {
+        TrustMaterial first = mCache.get();
+        assertEquals(mRoots.length, first.getRoots().size());
+        assertSame(first, mCache.get());
+        assertSame(first, mCache.get());
+        assertEquals(1, mLoads.get());
+    }
+
+    @Test
+    public void keepsMaterialWhenRootsAreUnchanged() {
+        TrustMaterial first = mCache.get();
+        mCache.invalidate();
+        assertSame(first, mCache.get());
+        assertEquals(2, mLoads.get());
+    }
+
+    @Test
+    public void replacesMaterialWhenRootsChange() {
+        TrustMaterial first = mCache.get();
+        mRoots = Arrays.copyOf(mRoots, mRoots.length - 1);
+        // Not reloaded until the policy may have changed
+        assertSame(first, mCache.get());
+
+        mCache.invalidate();
+        TrustMaterial second = mCache.get();
+        assertNotSame(first, second);
+        assertEquals(mRoots.length, second.getRoots().size());
+        assertSame(second, mCache.get());
+        assertEquals(2, mLoads.get());
+    }
+
+    @Test
+    public void staysStaleWhenReloadFails() {
+        mCache.get();
+        mCache.invalidate();
+        mFailLoads = true;
+        try {
+            mCache.get();
+            fail("The failed load should have been reported");
+        } catch (IllegalStateException expected) {
+        }
+
+        // The old material is not handed out as fresh; the next get loads again
+        mFailLoads = false;
+        mRoots = Arrays.copyOf(mRoots, mRoots.length - 1);
+        assertEquals(mRoots.length, mCache.get().getRoots().size());
+        assertEquals(3, mLoads.get());
+    }
+
+    /**
+     * A trust manager which only reports the roots it was given.
+     */
+    private static final class RootsTrustManager implements X509TrustManager {
+        private final X509Certificate[] mAccepted;
+
+        RootsTrustManager(final X509Certificate[] accepted) {
+            mAccepted = accepted;
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return mAccepted.clone();
+        }
+    }
+}